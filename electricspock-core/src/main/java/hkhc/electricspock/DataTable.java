@@ -0,0 +1,362 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import groovy.json.JsonSlurper;
+import hkhc.electricspock.internal.DataPartition;
+
+/**
+ * Data provider that reads rows lazily from a memory-mapped file, for where: blocks of many
+ * thousands of rows.
+ *
+ * <pre>
+ *    where:
+ *    row &lt;&lt; DataTable.csv("prices.csv")
+ * </pre>
+ *
+ * Only one row at a time is decoded, and the file is paged in by the operating system rather
+ * than read into the heap. A file is looked up in the working directory, then on the classpath.
+ * Files in a jar are read into memory.
+ *
+ * Every row has an index counted from 0. When the feature is @Partitioned, only the rows of
+ * the partition of this worker are iterated, see DataPartition.
+ */
+
+public class DataTable<T> implements Iterable<T> {
+
+    private final ByteBuffer buffer;
+    private final RowParser<T> parser;
+
+    /* first data line, after the header */
+    private final int start;
+
+    /* number of rows of all partitions, counted on demand */
+    private int rows = -1;
+
+    private DataTable(ByteBuffer buffer, RowParser<T> parser) {
+        this.buffer = buffer;
+        this.parser = parser;
+        this.start = parser.parseHeader(this);
+    }
+
+    /**
+     * Comma-separated values, with a header line naming the columns. Values may be quoted with
+     * ", and "" in a quoted value is a quote. A row takes one line.
+     *
+     * @param path path or classpath resource of the file
+     * @return rows as lists of values
+     */
+    public static DataTable<Row> csv(String path) throws IOException {
+        return new DataTable<>(map(path), new CsvParser());
+    }
+
+    public static DataTable<Row> csv(File file) throws IOException {
+        return new DataTable<>(map(file), new CsvParser());
+    }
+
+    /**
+     * One JSON value per line (JSON Lines)
+     *
+     * @param path path or classpath resource of the file
+     * @return rows parsed as by JsonSlurper
+     */
+    public static DataTable<Object> jsonLines(String path) throws IOException {
+        return new DataTable<>(map(path), new JsonLinesParser());
+    }
+
+    public static DataTable<Object> jsonLines(File file) throws IOException {
+        return new DataTable<>(map(file), new JsonLinesParser());
+    }
+
+    /**
+     * Spock calls it to estimate the number of iterations. Lines are counted without decoding.
+     *
+     * @return number of rows of this partition
+     */
+    public synchronized int size() {
+        if (rows < 0) {
+            rows = 0;
+            for (int position = skipBlank(start); position >= 0; position = skipBlank(lineEnd(position))) {
+                rows++;
+            }
+        }
+        int index = DataPartition.getIndex();
+        int count = DataPartition.getCount();
+        return rows / count + (index < rows % count ? 1 : 0);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+
+        final int index = DataPartition.getIndex();
+        final int count = DataPartition.getCount();
+        DataPartition.tableIterated();
+
+        return new Iterator<T>() {
+
+            /* start of the next row of the partition, -1 at the end */
+            private int position = start;
+            private int row = 0;
+            private boolean found = false;
+
+            private void find() {
+                if (found) return;
+                if (position >= 0) {
+                    // rows of other partitions are skipped without decoding
+                    while ((position = skipBlank(position)) >= 0 && row % count != index) {
+                        position = lineEnd(position);
+                        row++;
+                    }
+                }
+                found = true;
+            }
+
+            @Override
+            public boolean hasNext() {
+                find();
+                return position >= 0;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int end = lineEnd(position);
+                T value = parser.parse(row, decode(position, end));
+                position = end;
+                row++;
+                found = false;
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+    }
+
+    /* start of the next non-blank line, or -1 at the end */
+    private int skipBlank(int position) {
+        int limit = buffer.limit();
+        while (position < limit) {
+            byte b = buffer.get(position);
+            if (b != '\n' && b != '\r') return position;
+            position++;
+        }
+        return -1;
+    }
+
+    /* position of the line break that ends the line, or the end of file */
+    private int lineEnd(int position) {
+        int limit = buffer.limit();
+        while (position < limit && buffer.get(position) != '\n') {
+            position++;
+        }
+        return position;
+    }
+
+    private String decode(int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') end--;
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer map(String path) throws IOException {
+        File file = new File(path);
+        if (file.isFile()) return map(file);
+
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) classLoader = DataTable.class.getClassLoader();
+        URL url = classLoader.getResource(path);
+        if (url == null) throw new FileNotFoundException(path);
+
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return map(new File(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+
+        InputStream in = url.openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] bytes = new byte[8192];
+            int n;
+            while ((n = in.read(bytes)) >= 0) {
+                out.write(bytes, 0, n);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2 GB");
+            }
+            // the mapping stays valid after the file is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * A row of CSV file. It is a list of values, so it can be assigned to several data
+     * variables, e.g. <code>[name, price] &lt;&lt; DataTable.csv("prices.csv")</code>.
+     */
+    public static class Row extends AbstractList<String> {
+
+        private final int index;
+        private final List<String> columns;
+        private final List<String> values;
+
+        Row(int index, List<String> columns, List<String> values) {
+            this.index = index;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        /**
+         * @return index of the row in the file, counting from 0, regardless of partition
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public String get(int i) {
+            return values.get(i);
+        }
+
+        /**
+         * @param column name of the column in header
+         * @return value of the column, or null if the row is shorter
+         */
+        public String get(String column) {
+            int i = columns.indexOf(column);
+            if (i < 0) throw new IllegalArgumentException("No column '" + column + "' in " + columns);
+            return i < values.size() ? values.get(i) : null;
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+    }
+
+    private interface RowParser<T> {
+
+        /**
+         * @return start of the first data line
+         */
+        int parseHeader(DataTable<T> table);
+
+        T parse(int index, String line);
+    }
+
+    private static class CsvParser implements RowParser<Row> {
+
+        private List<String> columns = Collections.emptyList();
+
+        @Override
+        public int parseHeader(DataTable<Row> table) {
+            int position = table.skipBlank(0);
+            if (position < 0) return table.buffer.limit();
+            int end = table.lineEnd(position);
+            columns = Collections.unmodifiableList(split(table.decode(position, end)));
+            return end;
+        }
+
+        @Override
+        public Row parse(int index, String line) {
+            return new Row(index, columns, split(line));
+        }
+
+        static List<String> split(String line) {
+            List<String> values = new ArrayList<>();
+            StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        value.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    values.add(value.toString());
+                    value.setLength(0);
+                } else {
+                    value.append(c);
+                }
+            }
+            values.add(value.toString());
+            return values;
+        }
+    }
+
+    private static class JsonLinesParser implements RowParser<Object> {
+
+        private final JsonSlurper slurper = new JsonSlurper();
+
+        @Override
+        public int parseHeader(DataTable<Object> table) {
+            return 0;
+        }
+
+        @Override
+        public Object parse(int index, String line) {
+            return slurper.parseText(line);
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock;
+
+import java.io.File;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Give every feature of a specification a fresh copy of prepared databases.
+ *
+ * Each builder creates its database (e.g. by running all migrations) the first time it is needed
+ * in a sandbox. The database file is then kept as template, and before every following feature
+ * iteration the template is copied over the database file, instead of building it again.
+ *
+ * <pre>
+ * &#64;DatabaseTemplate(AppDatabaseBuilder)
+ * class MySpec extends ElectricSpecification { ... }
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface DatabaseTemplate {
+
+    Class<? extends Builder>[] value();
+
+    /**
+     * Create a database of the application. Implementations need a public no-argument
+     * constructor. Both methods are called within the sandbox, after the application is set up.
+     */
+    interface Builder {
+
+        /**
+         * @return location of the database in the current application, e.g.
+         * <code>RuntimeEnvironment.application.getDatabasePath("app.db")</code>
+         */
+        File getDatabaseFile();
+
+        /**
+         * Create the database at getDatabaseFile(). The database shall be closed before return,
+         * so that the file is complete when it is taken as template.
+         */
+        void build() throws Exception;
+
+    }
+
+}
@@ -24,20 +24,35 @@ import org.junit.runner.manipulation.Filterable;
 import org.junit.runner.manipulation.NoTestsRemainException;
 import org.junit.runner.manipulation.Sortable;
 import org.junit.runner.manipulation.Sorter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
 import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.model.InitializationError;
 import org.robolectric.internal.AndroidSandbox;
 import org.spockframework.runtime.Sputnik;
 import org.spockframework.runtime.model.SpecInfo;
 
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.SecureRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
+import hkhc.electricspock.internal.AndroidReferenceScanner;
 import hkhc.electricspock.internal.ContainedRobolectricTestRunner;
 import hkhc.electricspock.internal.ElectricSpockInterceptor;
+import hkhc.electricspock.internal.FailFast;
+import hkhc.electricspock.internal.InMemoryTempDirectory;
+import hkhc.electricspock.internal.OutputCapture;
+import hkhc.electricspock.internal.RunnerMetrics;
+import hkhc.electricspock.internal.SandboxExecutor;
+import hkhc.electricspock.internal.SandboxPathReport;
+import hkhc.electricspock.internal.Settings;
+import hkhc.electricspock.internal.worker.RemoteSpecRunner;
+import hkhc.electricspock.internal.worker.WorkerPool;
 import spock.lang.Specification;
 import spock.lang.Title;
 
@@ -61,21 +76,160 @@ public class ElectricSputnik extends Runner implements Filterable, Sortable {
      */
     private Runner sputnik;
 
+    /* Completes when the sandbox is ready and sputnik is created within it */
+    private Future<Runner> sputnikFuture;
+
+    private Class<? extends Specification> specClass;
+
+    /* true if the specification is run in a worker JVM. sputnik is then only used to describe
+    and filter the specification in this JVM */
+    private boolean remote = false;
+
+    /* kept to apply again when sputnik is created in a new sandbox */
+    private Filter filter = null;
+    private Sorter sorter = null;
+
+    /* decided once, so that a renewed sandbox does not analyze and report the spec again */
+    private Boolean sandboxed = null;
+
+    /* failure of creating the sandbox or sputnik. Like a runner that cannot be constructed, the
+    specification is then described by initializationError alone, and run() reports the failure */
+    private Throwable initFailure = null;
+
     static {
         new SecureRandom(); // this starts up the Poller SunPKCS11-Darwin thread early, outside of any Robolectric classloader
+        InMemoryTempDirectory.install(); // before Robolectric creates any temporary directory
     }
 
-    public ElectricSputnik(Class<? extends Specification> specClass) throws InitializationError {
+    public ElectricSputnik(final Class<? extends Specification> specClass) throws InitializationError {
 
         /* The project is so sensitive to the version of Robolectric, that we strictly check
         its version before proceed
          */
         (new RobolectricVersionChecker()).checkRobolectricVersion();
 
+        this.specClass = specClass;
+
+        /* Creating the sandbox is slow. Do it in background and wait for it only when this
+        runner is used. It pays off when several runners are constructed before any of them runs,
+        e.g. by ElectricSuite or by an IDE running a package: sandboxes of different configurations
+        are then created in parallel, while runners of the same configuration share the cached
+        sandbox and only bootstrap their specification in parallel. Gradle constructs and runs
+        test classes one at a time, so a runner of a Gradle fork waits for its sandbox right away.
+        Failures are reported by run as the failure of this specification only, so that they do
+        not break the description of a suite it belongs to.
+         */
+        submitInitSandbox();
+
+    }
+
+    private void submitInitSandbox() {
+        sputnikFuture = SandboxExecutor.submit(new Callable<Runner>() {
+            @Override
+            public Runner call() throws Exception {
+                if (sandboxed == null) {
+                    sandboxed = needsSandbox(specClass);
+                }
+                if (FailFast.isTripped()) {
+                    // a specification that will be skipped doesn't need a sandbox either
+                    sputnik = new Sputnik(specClass);
+                    return sputnik;
+                } else if (!sandboxed) {
+                    return initPlain(specClass);
+                } else if (WorkerPool.isEnabled()) {
+                    remote = true;
+                    specInfoClass = SpecInfo.class;
+                    sputnik = new Sputnik(specClass);
+                    return sputnik;
+                } else {
+                    return initSandbox(specClass);
+                }
+            }
+        });
+    }
+
+    /**
+     * Specifications that never touch Android API do not need a sandbox, and run much faster
+     * with plain Spock. See UseSandbox.
+     *
+     * @param specClass the Specification class to be run
+     * @return true if the specification shall run in sandbox
+     */
+    private boolean needsSandbox(Class<? extends Specification> specClass) {
+
+        boolean sandboxed;
+        String reason;
+
+        UseSandbox useSandbox = specClass.getAnnotation(UseSandbox.class);
+        if (useSandbox != null) {
+            sandboxed = useSandbox.value();
+            reason = "@UseSandbox(" + sandboxed + ")";
+        } else if (!Settings.getBoolean(Settings.DETECT_SANDBOX, true)) {
+            sandboxed = true;
+            reason = Settings.DETECT_SANDBOX + " is false";
+        } else {
+            try {
+                String reference = new AndroidReferenceScanner(specClass.getClassLoader())
+                        .findAndroidReference(specClass);
+                sandboxed = reference != null;
+                reason = sandboxed ? reference : "no Android reference";
+            } catch (IOException e) {
+                sandboxed = true;
+                reason = "cannot be analyzed: " + e.getMessage();
+            }
+        }
+
+        SandboxPathReport.record(specClass, sandboxed, reason);
+        return sandboxed;
+
+    }
+
+    /**
+     * The sandbox may be discarded by a stalled feature of another spec after this runner is
+     * initialized. Initialize again in a fresh sandbox in that case.
+     */
+    private void renewDiscardedSandbox() {
+        if (isInitFailed()) return;
+        if (containedRunner == null || !containedRunner.isSandboxDiscarded()) return;
+
+        submitInitSandbox();
+        if (isInitFailed()) return;
+        try {
+            if (filter != null) ((Filterable) getSputnik()).filter(filter);
+        } catch (NoTestsRemainException e) {
+            // it was accepted by the filter before
+            throw new RuntimeException(e);
+        }
+        if (sorter != null) ((Sortable) getSputnik()).sort(sorter);
+    }
+
+    /**
+     * Run with plain Sputnik, but still with ElectricSpockInterceptor, so that fail-fast, the
+     * stall watchdog and DatabaseTemplate work the same as in sandbox.
+     */
+    private Runner initPlain(Class<? extends Specification> specClass) throws InitializationError {
+
+        specInfoClass = SpecInfo.class;
+        sputnik = new Sputnik(specClass);
+
+        // registers itself, see registerSpec
+        new ElectricSpockInterceptor(getSpecInfo(), null);
+
+        return sputnik;
+
+    }
+
+    private Runner initSandbox(Class<? extends Specification> specClass) throws InitializationError {
+
+        long startTime = System.currentTimeMillis();
         containedRunner = new ContainedRobolectricTestRunner();
         sdkEnvironment = containedRunner.getContainedSdkEnvironment();
+        RunnerMetrics.getInstance().sandboxObtained(sdkEnvironment,
+                System.currentTimeMillis() - startTime);
 
 
+        // Spock runtime is not acquired by sandbox by default (see AcquisitionPolicy), then this
+        // is just SpecInfo of the runner's class loader
         specInfoClass = sdkEnvironment.bootstrappedClass(SpecInfo.class);
 
         // Since we have bootstrappedClass we may properly initialize
@@ -83,6 +237,46 @@ public class ElectricSputnik extends Runner implements Filterable, Sortable {
 
         registerSpec();
 
+        return sputnik;
+
+    }
+
+    /**
+     * Wait for the sandbox initialization started in constructor
+     *
+     * @return the Sputnik runner loaded in sandbox
+     */
+    private Runner getSputnik() {
+        return SandboxExecutor.await(sputnikFuture);
+    }
+
+    /**
+     * @return true if run() dispatches the specification to a worker JVM, so that it may run
+     * concurrently with other such specifications
+     */
+    public boolean isRemote() {
+        return !isInitFailed() && remote;
+    }
+
+    /**
+     * Wait for the sandbox initialization, and keep its failure
+     *
+     * @return true if the sandbox or sputnik cannot be created
+     */
+    private boolean isInitFailed() {
+        if (initFailure == null) {
+            try {
+                getSputnik();
+            } catch (Throwable e) {
+                initFailure = e;
+            }
+        }
+        return initFailure != null;
+    }
+
+    /* the same as JUnit gives a runner that cannot be constructed */
+    private Description getInitFailureDescription() {
+        return Description.createTestDescription(specClass, "initializationError");
     }
 
     /**
@@ -163,6 +357,17 @@ public class ElectricSputnik extends Runner implements Filterable, Sortable {
         }
     }
 
+    /**
+     * @return the SpecInfo of a Sputnik created outside of sandbox
+     */
+    private SpecInfo getSpecInfo() {
+        for (Method method : sputnik.getClass().getDeclaredMethods()) {
+            Object specInfo = getSpec(method);
+            if (specInfo != null) return (SpecInfo) specInfo;
+        }
+        throw new RuntimeException("Failed to obtain SpecInfo from " + sputnik.getClass().getName());
+    }
+
     /**
      * Get a sandboxed constructor of interceptor
      *
@@ -187,41 +392,111 @@ public class ElectricSputnik extends Runner implements Filterable, Sortable {
 
     public Description getDescription() {
 
-        Description originalDesc = sputnik.getDescription();
+        if (isInitFailed()) {
+            Description failedDesc = Description.createSuiteDescription(getTitle(specClass));
+            failedDesc.addChild(getInitFailureDescription());
+            return failedDesc;
+        }
+
+        Description originalDesc = getSputnik().getDescription();
 
         Class<?> testClass = originalDesc.getTestClass();
         if (testClass == null) throw new RuntimeException("Unexpected null testClass");
 
-        String title = null;
+        Description overridedDesc = Description.createSuiteDescription(getTitle(testClass));
+        for (Description d : originalDesc.getChildren()) {
+            overridedDesc.addChild(d);
+        }
+
+        return overridedDesc;
+
+    }
+
+    private static String getTitle(Class<?> testClass) {
         Annotation[] annotations = testClass.getAnnotations();
         for (Annotation a : annotations) {
             if (a instanceof Title) {
-                title = ((Title) a).value();
-                break;
+                return ((Title) a).value();
             }
         }
+        return testClass.getName();
+    }
 
-        Description overridedDesc = Description.createSuiteDescription(
-                title == null ? testClass.getName() : title
-        );
-        for (Description d : originalDesc.getChildren()) {
-            overridedDesc.addChild(d);
+    public void run(RunNotifier notifier) {
+        if (isInitFailed()) {
+            fireInitFailure(notifier);
+            return;
+        }
+        if (FailFast.isTripped()) {
+            fireIgnored(getDescription(), notifier);
+            return;
         }
 
-        return overridedDesc;
+        long startTime = System.currentTimeMillis();
+        RunListener failureCounter = FailFast.isEnabled() ? FailFast.newListener() : null;
+        if (failureCounter != null) notifier.addListener(failureCounter);
+        try {
+            renewDiscardedSandbox();
+            if (isInitFailed()) {
+                fireInitFailure(notifier);
+            } else if (remote) {
+                Description description = getDescription();
+                new RemoteSpecRunner(specClass).run(getSpecInfo(), description, notifier);
+            } else {
+                runCapturingOutput(notifier);
+            }
+        } finally {
+            if (failureCounter != null) notifier.removeListener(failureCounter);
+            RunnerMetrics.getInstance().specFinished(System.currentTimeMillis() - startTime);
+        }
+    }
 
+    private void fireInitFailure(RunNotifier notifier) {
+        Description description = getInitFailureDescription();
+        notifier.fireTestStarted(description);
+        notifier.fireTestFailure(new Failure(description, initFailure));
+        notifier.fireTestFinished(description);
     }
 
-    public void run(RunNotifier notifier) {
-        sputnik.run(notifier);
+    private void fireIgnored(Description description, RunNotifier notifier) {
+        if (description.isTest()) {
+            notifier.fireTestIgnored(description);
+        } else {
+            for (Description child : description.getChildren()) {
+                fireIgnored(child, notifier);
+            }
+        }
+    }
+
+    /* Output of features run in worker JVM is captured by the worker */
+    private void runCapturingOutput(RunNotifier notifier) {
+        OutputCapture capture = OutputCapture.getInstance();
+        if (capture == null) {
+            getSputnik().run(notifier);
+            return;
+        }
+        RunListener listener = capture.newListener();
+        notifier.addListener(listener);
+        try {
+            getSputnik().run(notifier);
+        } finally {
+            notifier.removeListener(listener);
+        }
     }
 
     public void filter(Filter filter) throws NoTestsRemainException {
-        ((Filterable) sputnik).filter(filter);
+        if (isInitFailed()) {
+            if (!filter.shouldRun(getInitFailureDescription())) throw new NoTestsRemainException();
+            return;
+        }
+        ((Filterable) getSputnik()).filter(filter);
+        this.filter = filter;
     }
 
     public void sort(Sorter sorter) {
-        ((Sortable) sputnik).sort(sorter);
+        if (isInitFailed()) return;
+        ((Sortable) getSputnik()).sort(sorter);
+        this.sorter = sorter;
     }
 
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock;
+
+import org.junit.runner.Description;
+
+import hkhc.electricspock.internal.OutputCapture;
+
+/**
+ * Output captured from features when system property electricspock.output.capture is true. It
+ * is for reporters, e.g. a RunListener that attaches the output of slow features to its report.
+ */
+
+public class FeatureOutput {
+
+    private FeatureOutput() {
+    }
+
+    /**
+     * @param description description of a feature, or an iteration of unrolled feature, that
+     *                    has finished in this JVM
+     * @return stdout and stderr of it, or null if it is not captured or has been overwritten by
+     * later output
+     */
+    public static String get(Description description) {
+        OutputCapture capture = OutputCapture.getInstance();
+        return capture == null ? null : capture.getOutput(description);
+    }
+
+}
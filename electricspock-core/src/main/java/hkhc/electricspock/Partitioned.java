@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Split the iterations of a data-driven feature across worker JVMs, when specifications run in
+ * worker processes (electricspock.execution=process). Every worker runs the feature with a share
+ * of the rows of the DataTable of its where: block, and every iteration is reported as usual.
+ *
+ * <pre>
+ *    &#64;Partitioned(4)
+ *    &#64;Unroll
+ *    def "price of #row.index is valid"() {
+ *        expect:
+ *        Price.parse(row.get("price")).valid
+ *        where:
+ *        row &lt;&lt; DataTable.csv("prices.csv")
+ *    }
+ * </pre>
+ *
+ * The feature must be @Unroll, so that every worker reports its own iterations; otherwise it
+ * fails. Iteration names shall be unique across partitions, e.g. by a data variable or the row
+ * index as above, since every worker counts its iterations from 0. All data providers of the
+ * where: block must be DataTable, as other providers would yield all their values in every
+ * worker; the feature fails at its first iteration otherwise. Derived data variables, like
+ * <code>price = row.get("price")</code>, are fine. Without worker processes the feature runs all
+ * rows as usual.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Partitioned {
+
+    /* number of partitions */
+    int value();
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock;
+
+import hkhc.electricspock.internal.FixtureShutdown;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fixtures shared by all specifications running in the same sandbox, e.g. parsed assets or
+ * dependency graphs that are expensive to build for every specification.
+ *
+ * This class is loaded by the sandbox class loader, so every sandbox has its own fixtures. A
+ * fixture is identified by its type and a list of parameters, and is created on first request:
+ *
+ * <pre>
+ * def catalog = SandboxFixtures.get(Catalog, ["catalog.json"]) { Catalog.parse("catalog.json") }
+ * </pre>
+ *
+ * Fixtures are torn down when they are invalidated, when the sandbox is discarded by
+ * ElectricSpock, or when the JVM exits. A sandbox evicted from the cache of Robolectric cannot be
+ * observed, so its fixtures are not torn down but released with the sandbox. Fixtures implementing
+ * AutoCloseable are closed by default. Specifications that run without sandbox share fixtures
+ * with other such specifications of the JVM.
+ */
+
+public final class SandboxFixtures {
+
+    public interface Factory<T> {
+        T create() throws Exception;
+    }
+
+    public interface Teardown<T> {
+        void teardown(T fixture) throws Exception;
+    }
+
+    private static final Teardown<Object> CLOSE = new Teardown<Object>() {
+        @Override
+        public void teardown(Object fixture) throws Exception {
+            if (fixture instanceof AutoCloseable) {
+                ((AutoCloseable) fixture).close();
+            }
+        }
+    };
+
+    private static final Map<Key, Entry> fixtures = new LinkedHashMap<>();
+
+    /* held here, as FixtureShutdown holds it weakly to let the sandbox go */
+    private static final Runnable SHUTDOWN = new Runnable() {
+        @Override
+        public void run() {
+            invalidateAll();
+        }
+    };
+
+    private static boolean shutdownRegistered = false;
+
+    private SandboxFixtures() {
+    }
+
+    public static <T> T get(Class<T> type, Factory<? extends T> factory) {
+        return get(type, Collections.emptyList(), factory, CLOSE);
+    }
+
+    public static <T> T get(Class<T> type, List<?> parameters, Factory<? extends T> factory) {
+        return get(type, parameters, factory, CLOSE);
+    }
+
+    /**
+     * Get the fixture of given type and parameters, create it if it does not exist yet.
+     *
+     * @param type       type of fixture
+     * @param parameters parameters that tell fixtures of the same type apart
+     * @param factory    create the fixture
+     * @param teardown   release the fixture when it is invalidated
+     * @return the fixture
+     */
+    public static synchronized <T> T get(Class<T> type, List<?> parameters,
+                                         Factory<? extends T> factory,
+                                         Teardown<? super T> teardown) {
+
+        Key key = new Key(type, parameters);
+        Entry entry = fixtures.get(key);
+        if (entry == null) {
+            T fixture;
+            try {
+                fixture = factory.create();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to create fixture " + key, e);
+            }
+            entry = new Entry(fixture, teardown);
+            fixtures.put(key, entry);
+            if (!shutdownRegistered) {
+                FixtureShutdown.register(SHUTDOWN);
+                shutdownRegistered = true;
+            }
+        }
+        return type.cast(entry.fixture);
+
+    }
+
+    /**
+     * Tear down fixtures of the type with any parameters
+     */
+    public static synchronized void invalidate(Class<?> type) {
+        List<Entry> removed = new ArrayList<>();
+        Iterator<Map.Entry<Key, Entry>> iterator = fixtures.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Entry> mapEntry = iterator.next();
+            if (mapEntry.getKey().type == type) {
+                removed.add(mapEntry.getValue());
+                iterator.remove();
+            }
+        }
+        teardown(removed);
+    }
+
+    public static synchronized void invalidate(Class<?> type, List<?> parameters) {
+        Entry entry = fixtures.remove(new Key(type, parameters));
+        if (entry != null) {
+            teardown(Collections.singletonList(entry));
+        }
+    }
+
+    public static synchronized void invalidateAll() {
+        List<Entry> removed = new ArrayList<>(fixtures.values());
+        fixtures.clear();
+        teardown(removed);
+    }
+
+    /* tear down in reverse order of creation, as later fixtures may depend on earlier ones */
+    private static void teardown(List<Entry> entries) {
+        RuntimeException failure = null;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            try {
+                entries.get(i).teardown();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = new RuntimeException("Failed to tear down fixture", e);
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private static final class Entry {
+
+        private final Object fixture;
+        private final Teardown<Object> teardown;
+
+        @SuppressWarnings("unchecked")
+        Entry(Object fixture, Teardown<?> teardown) {
+            this.fixture = fixture;
+            this.teardown = (Teardown<Object>) teardown;
+        }
+
+        void teardown() throws Exception {
+            if (teardown != null) teardown.teardown(fixture);
+        }
+    }
+
+    private static final class Key {
+
+        private final Class<?> type;
+        private final List<Object> parameters;
+
+        Key(Class<?> type, List<?> parameters) {
+            this.type = type;
+            this.parameters = Collections.unmodifiableList(new ArrayList<Object>(parameters));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return type == other.type && parameters.equals(other.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + parameters.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return type.getName() + parameters;
+        }
+    }
+
+}
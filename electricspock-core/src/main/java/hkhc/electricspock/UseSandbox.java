@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Decide whether an ElectricSpecification runs in Robolectric sandbox.
+ *
+ * Without this annotation, ElectricSputnik runs a specification with plain Spock Sputnik when
+ * neither the specification nor the classes it refers to directly refer to Android or
+ * Robolectric API. Annotate with <code>@UseSandbox</code> to always run in sandbox, e.g. when
+ * Android API is only reached through reflection, or <code>@UseSandbox(false)</code> to never
+ * do so.
+ *
+ * Fail-fast, the stall watchdog, DatabaseTemplate and output capture apply to specifications run
+ * with plain Sputnik too. Restoring static fields and SandboxFixtures are about sandboxes and do
+ * not apply.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface UseSandbox {
+
+    boolean value() default true;
+
+}
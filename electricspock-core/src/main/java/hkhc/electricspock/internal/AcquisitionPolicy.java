@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import org.robolectric.internal.bytecode.InstrumentationConfiguration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packages that sandboxes do not acquire, but load from the class loader of the test runner
+ * instead. Those classes are loaded, initialized and warmed up once per JVM rather than once per
+ * sandbox.
+ *
+ * By default it covers the proxy generators behind Spock's Mock() and Stub(), and the Groovy and
+ * Spock runtime. None of them refer to Android API, and the classes they generate for sandboxed
+ * types are still defined in the sandbox. Sharing of the Groovy and Spock runtime can be turned
+ * off with electricspock.shareRuntime=false.
+ *
+ * More packages can be given with electricspock.sharedPackages, as a comma-separated list of
+ * package prefixes, e.g. "com.google.gson.,org.json.". They shall not refer to Android API nor
+ * keep state that has to be reset between sandboxes.
+ */
+
+public class AcquisitionPolicy {
+
+    /* Proxy generators used by Spock mocks. They cache generated classes by the class loader of
+    the mocked type and the mocked type signature, so the cache is shared too */
+    static final List<String> MOCK_GENERATOR_PACKAGES = Arrays.asList(
+            "net.sf.cglib.",
+            "net.bytebuddy.",
+            "org.objenesis."
+    );
+
+    static final List<String> RUNTIME_PACKAGES = Arrays.asList(
+            "groovy.",
+            "groovyjarjarantlr.",
+            "groovyjarjarasm.",
+            "groovyjarjarcommonscli.",
+            "org.apache.groovy.",
+            "org.codehaus.groovy.",
+            "org.spockframework.",
+            "spock."
+    );
+
+    /* Classes keeping state of the whole JVM, e.g. System.out, or threads that would keep a
+    sandbox reachable. Loading them again in sandbox would install them again. Classes they refer
+    to are loaded by the same class loader, but nested classes used by sandboxed code are listed
+    too */
+    static final List<String> JVM_SINGLETON_CLASSES = Arrays.asList(
+            "hkhc.electricspock.FeatureOutput",
+            "hkhc.electricspock.internal.OutputCapture",
+            "hkhc.electricspock.internal.FailFast",
+            "hkhc.electricspock.internal.FixtureShutdown",
+            "hkhc.electricspock.internal.DataPartition",
+            "hkhc.electricspock.internal.StallWatchdog",
+            "hkhc.electricspock.internal.StallWatchdog$Watch"
+    );
+
+    private AcquisitionPolicy() {
+    }
+
+    public static List<String> getSharedPackages() {
+
+        List<String> packages = new ArrayList<>(MOCK_GENERATOR_PACKAGES);
+
+        if (Settings.getBoolean(Settings.SHARE_RUNTIME, true)) {
+            packages.addAll(RUNTIME_PACKAGES);
+        }
+
+        String userPackages = Settings.getString(Settings.SHARED_PACKAGES, null);
+        if (userPackages != null) {
+            for (String packageName : userPackages.split(",")) {
+                packageName = packageName.trim();
+                if (packageName.isEmpty()) continue;
+                packages.add(packageName.endsWith(".") ? packageName : packageName + ".");
+            }
+        }
+
+        return packages;
+    }
+
+    public static void apply(InstrumentationConfiguration.Builder builder) {
+        for (String packageName : getSharedPackages()) {
+            builder.doNotAcquirePackage(packageName);
+        }
+        for (String className : JVM_SINGLETON_CLASSES) {
+            builder.doNotAcquireClass(className);
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A limit of concurrent tasks that moves between a minimum and a maximum with the load of the
+ * machine. It starts at the maximum, and the load is sampled every second:
+ *
+ * - when a JVM runs low on heap after GC, or spends much of its time in GC, the limit goes down,
+ * by half if the heap is almost full
+ * - when every JVM has plenty of heap, and the CPUs are not saturated, the limit goes up by one
+ * as long as tasks are waiting for it
+ *
+ * The JVM itself is always sampled. Worker JVMs report their samples with report().
+ * Tasks running when the limit goes down are not interrupted, new tasks wait until enough of
+ * them finish.
+ */
+
+public class AdaptiveConcurrency {
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 1000;
+
+    /* below it the limit is halved */
+    private static final double CRITICAL_HEADROOM = 0.10;
+    private static final double LOW_HEADROOM = 0.20;
+    private static final double HIGH_HEADROOM = 0.35;
+    private static final double HIGH_GC_OVERHEAD = 0.10;
+    private static final double LOW_GC_OVERHEAD = 0.05;
+    private static final double HIGH_CPU_LOAD = 0.85;
+
+    private final String name;
+    private final int min;
+    private final int max;
+    private int limit;
+    private int active = 0;
+    private int waiting = 0;
+
+    private LoadSample lastLocalSample = LoadSample.current();
+    private final Map<Object, LoadSample> lastRemoteSamples = new HashMap<>();
+    private final Map<Object, Double> remoteGcOverheads = new HashMap<>();
+
+    private ScheduledExecutorService sampler = null;
+
+    /**
+     * @param name name of the tasks, for the sampling thread
+     * @param max  upper bound of the limit. The lower bound is electricspock.workers.min. The
+     *             limit is fixed at max when electricspock.adaptive is false.
+     */
+    public AdaptiveConcurrency(String name, int max) {
+        this.name = name;
+        this.max = Math.max(1, max);
+        if (Settings.getBoolean(Settings.ADAPTIVE, true)) {
+            this.min = Math.max(1, Math.min(this.max, Settings.getInt(Settings.MIN_WORKERS, 1)));
+        } else {
+            this.min = this.max;
+        }
+        // start at the configured parallelism, and only back off under heap or GC pressure
+        this.limit = this.max;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized void acquire() throws InterruptedException {
+        startSampling();
+        waiting++;
+        try {
+            while (active >= limit) {
+                wait();
+            }
+        } finally {
+            waiting--;
+        }
+        active++;
+    }
+
+    public synchronized void release() {
+        active--;
+        notifyAll();
+    }
+
+    /**
+     * @param source the JVM sampled, e.g. a worker process
+     * @param sample sample taken in that JVM
+     */
+    public synchronized void report(Object source, LoadSample sample) {
+        if (sample == null) return;
+        LoadSample previous = lastRemoteSamples.put(source, sample);
+        if (previous != null) {
+            remoteGcOverheads.put(source, sample.getGcOverheadSince(previous));
+        }
+    }
+
+    /**
+     * @param source a JVM that is gone and no longer counts
+     */
+    public synchronized void forget(Object source) {
+        lastRemoteSamples.remove(source);
+        remoteGcOverheads.remove(source);
+    }
+
+    private void startSampling() {
+        if (sampler != null || min == max) return;
+        sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "electricspock-" + name + "-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sampler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                adjust();
+            }
+        }, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void adjust() {
+        adjust(LoadSample.current(), getCpuLoad());
+    }
+
+    /**
+     * @param localSample sample of this JVM
+     * @param cpuLoad     system-wide CPU load, negative if unknown
+     */
+    void adjust(LoadSample localSample, double cpuLoad) {
+
+        synchronized (this) {
+
+            double headroom = localSample.getHeadroom();
+            double gcOverhead = localSample.getGcOverheadSince(lastLocalSample);
+            lastLocalSample = localSample;
+            for (LoadSample sample : lastRemoteSamples.values()) {
+                headroom = Math.min(headroom, sample.getHeadroom());
+            }
+            for (double overhead : remoteGcOverheads.values()) {
+                gcOverhead = Math.max(gcOverhead, overhead);
+            }
+
+            int newLimit = limit;
+            if (headroom < CRITICAL_HEADROOM) {
+                newLimit = limit / 2;
+            } else if (headroom < LOW_HEADROOM || gcOverhead > HIGH_GC_OVERHEAD) {
+                newLimit = limit - 1;
+            } else if (waiting > 0 && headroom > HIGH_HEADROOM && gcOverhead < LOW_GC_OVERHEAD
+                    && (cpuLoad < 0 || cpuLoad < HIGH_CPU_LOAD)) {
+                newLimit = limit + 1;
+            }
+
+            newLimit = Math.max(min, Math.min(max, newLimit));
+            if (newLimit != limit) {
+                limit = newLimit;
+                notifyAll();
+            }
+
+        }
+
+    }
+
+    /* system-wide, so that the load of worker JVMs counts; negative if unknown */
+    private static double getCpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getSystemCpuLoad();
+        }
+        return -1;
+    }
+
+}
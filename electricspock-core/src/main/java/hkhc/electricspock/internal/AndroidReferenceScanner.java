@@ -0,0 +1,260 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Find out whether a specification refers to Android API, by reading the constant pool of its
+ * class files. The spec class, its super classes and nested classes (including closures) are
+ * scanned, together with the classes they refer to directly.
+ *
+ * Robolectric API counts as Android API, so that e.g. a @Config annotation keeps a spec in the
+ * sandbox.
+ */
+
+public class AndroidReferenceScanner {
+
+    private static final String[] ANDROID_PREFIXES = {
+            "android/",
+            "androidx/",
+            "org/robolectric/"
+    };
+
+    /* classes that are known not to be the concern of a specification */
+    private static final String[] SKIPPED_PREFIXES = {
+            "java/",
+            "javax/",
+            "jdk/",
+            "sun/",
+            "kotlin/",
+            "groovy/",
+            "groovyjarjar",
+            "org/apache/groovy/",
+            "org/codehaus/groovy/",
+            "org/spockframework/",
+            "spock/",
+            "junit/",
+            "org/junit/",
+            "org/hamcrest/",
+            "hkhc/electricspock/Electric",
+            "hkhc/electricspock/UseSandbox",
+            "hkhc/electricspock/internal/",
+            "hkhc/electricspock/runner/ElectricSuite",
+            "hkhc/electricspock/runner/InnerSpecRunner"
+    };
+
+    /* type in field and method descriptors, and in generic signatures */
+    private static final Pattern DESCRIPTOR_TYPE = Pattern.compile("L([\\w$/]+)[;<]");
+
+    /* direct references of classes, shared by specs as they often have common collaborators */
+    private static final Map<String, Set<String>> referenceCache = new ConcurrentHashMap<>();
+
+    private final ClassLoader classLoader;
+
+    public AndroidReferenceScanner(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * @param specClass the specification class
+     * @return description of the first Android reference found, or null if there is none
+     * @throws IOException if a class file of the specification cannot be read
+     */
+    public String findAndroidReference(Class<?> specClass) throws IOException {
+
+        Deque<String> ownClasses = new ArrayDeque<>();
+        for (Class<?> c = specClass; c != null && !isSkipped(internalName(c)); c = c.getSuperclass()) {
+            ownClasses.add(internalName(c));
+        }
+        Set<String> scanned = new HashSet<>(ownClasses);
+        Set<String> visited = new HashSet<>(ownClasses);
+        Set<String> collaborators = new LinkedHashSet<>();
+
+        while (!ownClasses.isEmpty()) {
+            String className = ownClasses.poll();
+            Set<String> references = getReferences(className);
+            if (references == null) {
+                throw new IOException("Cannot read class file of " + className);
+            }
+            for (String reference : references) {
+                if (isAndroid(reference)) {
+                    return toClassName(className) + " refers to " + toClassName(reference);
+                }
+                if (isSkipped(reference) || !visited.add(reference)) continue;
+                if (isNestedIn(reference, scanned)) {
+                    scanned.add(reference);
+                    ownClasses.add(reference);
+                } else {
+                    collaborators.add(reference);
+                }
+            }
+        }
+
+        for (String collaborator : collaborators) {
+            Set<String> references = getReferences(collaborator);
+            // not a class we can read, e.g. a false match of descriptor pattern
+            if (references == null) continue;
+            for (String reference : references) {
+                if (isAndroid(reference)) {
+                    return toClassName(collaborator) + " refers to " + toClassName(reference);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isNestedIn(String className, Set<String> ownClasses) {
+        int index = className.indexOf('$');
+        return index > 0 && ownClasses.contains(className.substring(0, index));
+    }
+
+    private static boolean isAndroid(String className) {
+        for (String prefix : ANDROID_PREFIXES) {
+            if (className.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isSkipped(String className) {
+        for (String prefix : SKIPPED_PREFIXES) {
+            if (className.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    private static String internalName(Class<?> c) {
+        return c.getName().replace('.', '/');
+    }
+
+    private static String toClassName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    private Set<String> getReferences(String className) throws IOException {
+        Set<String> references = referenceCache.get(className);
+        if (references == null) {
+            InputStream in = classLoader.getResourceAsStream(className + ".class");
+            if (in == null) return null;
+            try {
+                references = readReferences(in);
+            } finally {
+                in.close();
+            }
+            referenceCache.put(className, references);
+        }
+        return references;
+    }
+
+    /**
+     * Read the names of classes in the constant pool of a class file.
+     *
+     * @param classFile the content of class file
+     * @return internal names of classes referred
+     */
+    static Set<String> readReferences(InputStream classFile) throws IOException {
+
+        DataInputStream in = new DataInputStream(classFile);
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNameIndexes = new int[count];
+        int classCount = 0;
+
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classNameIndexes[classCount++] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    i++; // takes two entries
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        Set<String> references = new LinkedHashSet<>();
+        for (int i = 0; i < classCount; i++) {
+            String name = utf8[classNameIndexes[i]];
+            if (name == null) continue;
+            if (name.startsWith("[")) {
+                // array class, its element type is in descriptor form
+                addDescriptorTypes(name, references);
+            } else {
+                references.add(name);
+            }
+        }
+        for (String value : utf8) {
+            if (value != null) addDescriptorTypes(value, references);
+        }
+
+        return references;
+    }
+
+    private static void addDescriptorTypes(String value, Set<String> references) {
+        if (value.indexOf('L') < 0) return;
+        Matcher matcher = DESCRIPTOR_TYPE.matcher(value);
+        while (matcher.find()) {
+            references.add(matcher.group(1));
+        }
+    }
+
+}
@@ -10,6 +10,7 @@ import org.robolectric.internal.bytecode.InstrumentationConfiguration;
 
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Modified RobolectricTestRunner solely to be used by Spock interceptor.
@@ -17,9 +18,15 @@ import java.util.List;
 
 public class ContainedRobolectricTestRunner extends RobolectricTestRunner {
 
+    /* Robolectric caches sandboxes by configuration. Runners of a later generation use a
+    different configuration, so they get a fresh sandbox when the current one is discarded.
+     */
+    private static final AtomicInteger sandboxGeneration = new AtomicInteger(0);
+
     private FrameworkMethod placeholderMethod = null;
     private AndroidSandbox sdkEnvironment = null;
     private Method bootstrapedMethod = null;
+    private int generation = sandboxGeneration.get();
 
     /**
      * Pretend to be a test runner for the placeholder test class. We don't actually run that test
@@ -74,29 +81,61 @@ public class ContainedRobolectricTestRunner extends RobolectricTestRunner {
     }
 
     /**
-     * Override to add itself to doNotAcquireClass, so as to avoid classloader conflict
+     * Override to add itself to doNotAcquireClass, so as to avoid classloader conflict.
+     *
+     * Packages of AcquisitionPolicy are not acquired either, so that they are loaded once and
+     * shared by all sandboxes.
      */
     @Override
     @NotNull
     protected InstrumentationConfiguration createClassLoaderConfig(final FrameworkMethod method) {
 
-        return new InstrumentationConfiguration.Builder(super.createClassLoaderConfig(method))
-                .doNotAcquireClass(getClass())
-                .build();
+        InstrumentationConfiguration.Builder builder =
+                new InstrumentationConfiguration.Builder(super.createClassLoaderConfig(method))
+                        .doNotAcquireClass(getClass());
+
+        AcquisitionPolicy.apply(builder);
+
+        if (generation > 0) {
+            // a class that does not exist, only to make the configuration different
+            builder.doNotAcquireClass(getClass().getName() + "$Generation" + generation);
+        }
+
+        return builder.build();
 
     }
 
-    public AndroidSandbox getContainedSdkEnvironment() {
+    /**
+     * Runners may be initialized concurrently (see SandboxExecutor), and Robolectric hands the
+     * same cached sandbox to all runners with the same configuration. So configuration of a
+     * sandbox is serialized, while different sandboxes are still set up in parallel.
+     */
+    public synchronized AndroidSandbox getContainedSdkEnvironment() {
         if (sdkEnvironment == null) {
             FrameworkMethod placeHolderMethod = getPlaceHolderMethod();
-            sdkEnvironment = getSandbox(placeHolderMethod);
-            // this loads in our shadows and configures our env.
-            configureSandbox(sdkEnvironment, placeHolderMethod);
+            AndroidSandbox sandbox = getSandbox(placeHolderMethod);
+            synchronized (sandbox) {
+                // this loads in our shadows and configures our env.
+                configureSandbox(sandbox, placeHolderMethod);
+            }
+            sdkEnvironment = sandbox;
         }
 
         return sdkEnvironment;
     }
 
+    /**
+     * Stop using the sandbox of this runner, e.g. when a feature leaves it in a bad state. Runners
+     * created afterward use a new sandbox.
+     */
+    public void discardSandbox() {
+        sandboxGeneration.compareAndSet(generation, generation + 1);
+    }
+
+    public boolean isSandboxDiscarded() {
+        return generation != sandboxGeneration.get();
+    }
+
     public void containedBeforeTest() throws Throwable {
         super.beforeTest(getContainedSdkEnvironment(), getPlaceHolderMethod(), getBootstrapedMethod());
     }
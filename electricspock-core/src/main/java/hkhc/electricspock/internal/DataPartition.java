@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The share of rows of DataTable that this JVM runs, when a @Partitioned feature is split across
+ * worker JVMs. Every table yields the rows whose index modulo count is index. Tables count the
+ * times they are iterated, so that a feature whose other data providers are not partitioned is
+ * told apart.
+ *
+ * It must be loaded by the class loader of the runner, not in sandbox, as the worker sets it
+ * outside the sandbox the feature runs in.
+ */
+
+public class DataPartition {
+
+    private static volatile int index = 0;
+    private static volatile int count = 1;
+
+    private static final AtomicInteger tablesIterated = new AtomicInteger();
+
+    private DataPartition() {
+    }
+
+    public static synchronized void set(int index, int count) {
+        DataPartition.count = Math.max(1, count);
+        DataPartition.index = index;
+    }
+
+    public static void clear() {
+        set(0, 1);
+    }
+
+    public static int getIndex() {
+        return index;
+    }
+
+    public static int getCount() {
+        return count;
+    }
+
+    public static void tableIterated() {
+        tablesIterated.incrementAndGet();
+    }
+
+    /**
+     * @return number of tables iterated since the last call
+     */
+    public static int takeTablesIterated() {
+        return tablesIterated.getAndSet(0);
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import hkhc.electricspock.DatabaseTemplate;
+
+/**
+ * Database templates of DatabaseTemplate builders.
+ *
+ * This class is loaded by the sandbox class loader, so the templates are kept per sandbox.
+ */
+
+public class DatabaseTemplates {
+
+    /* files created by SQLite next to the database file */
+    private static final String[] COMPANION_SUFFIXES = {"-journal", "-wal", "-shm"};
+
+    private static final Map<Class<?>, File> templates = new HashMap<>();
+
+    private static File templateDir = null;
+
+    private DatabaseTemplates() {
+    }
+
+    /**
+     * Put a fresh copy of database at the location given by the builder. The database is built
+     * the first time, and copied from template afterward.
+     *
+     * @param builderClass the builder of database
+     */
+    public static synchronized void restore(Class<? extends DatabaseTemplate.Builder> builderClass)
+            throws Exception {
+
+        DatabaseTemplate.Builder builder = builderClass.getDeclaredConstructor().newInstance();
+        File database = builder.getDatabaseFile();
+        File template = templates.get(builderClass);
+
+        deleteDatabase(database);
+
+        if (template == null) {
+            builder.build();
+            if (!database.isFile()) {
+                throw new IllegalStateException("Database builder " + builderClass.getName()
+                        + " does not create database at " + database);
+            }
+            template = new File(getTemplateDir(), templates.size() + "-" + database.getName());
+            template.deleteOnExit();
+            copy(database, template);
+            templates.put(builderClass, template);
+        } else {
+            File parent = database.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create database directory " + parent);
+            }
+            copy(template, database);
+        }
+
+    }
+
+    private static File getTemplateDir() throws IOException {
+        if (templateDir == null) {
+            templateDir = Files.createTempDirectory("electricspock-db").toFile();
+            // files registered later are deleted first
+            templateDir.deleteOnExit();
+        }
+        return templateDir;
+    }
+
+    private static void deleteDatabase(File database) throws IOException {
+        Files.deleteIfExists(database.toPath());
+        for (String suffix : COMPANION_SUFFIXES) {
+            Files.deleteIfExists(new File(database.getPath() + suffix).toPath());
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
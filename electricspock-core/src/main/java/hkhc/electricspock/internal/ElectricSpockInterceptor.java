@@ -17,11 +17,17 @@
 
 package hkhc.electricspock.internal;
 
+import org.junit.AssumptionViolatedException;
+import org.spockframework.runtime.InvalidSpecException;
 import org.spockframework.runtime.extension.AbstractMethodInterceptor;
 import org.spockframework.runtime.extension.IMethodInvocation;
+import org.spockframework.runtime.model.FeatureInfo;
 import org.spockframework.runtime.model.SpecInfo;
 
+import hkhc.electricspock.DatabaseTemplate;
 import hkhc.electricspock.ElectricSputnik;
+import hkhc.electricspock.Partitioned;
+import hkhc.electricspock.SandboxFixtures;
 
 /**
  * Created by herman on 27/12/2016.
@@ -29,28 +35,74 @@ import hkhc.electricspock.ElectricSputnik;
 
 public class ElectricSpockInterceptor extends AbstractMethodInterceptor {
 
+    /* null when the specification runs with plain Sputnik, without sandbox */
     private ContainedRobolectricTestRunner containedTestRunner;
 
+    private DatabaseTemplate databaseTemplate;
+
+    /* watch of the running feature, features of a specification run one at a time */
+    private StallWatchdog.Watch watch;
+    private boolean stallReported;
+
+    /* the data providers of the running @Partitioned feature are yet to be checked */
+    private boolean partitionCheckPending;
+
     public ElectricSpockInterceptor(SpecInfo spec,
                                     ContainedRobolectricTestRunner containedRobolectricTestRunner) {
         this.containedTestRunner = containedRobolectricTestRunner;
 
-        spec.addInterceptor(this);
+        if (containedTestRunner != null) {
+            spec.addInterceptor(this);
+        }
+        if (isRestoringStatics()) {
+            // classes initialized while bootstrapping the sandbox and the specification
+            StaticState.snapshot(getSandboxClassLoader());
+        }
+
+        databaseTemplate = spec.getReflection().getAnnotation(DatabaseTemplate.class);
+        for (FeatureInfo feature : spec.getAllFeatures()) {
+            if (databaseTemplate != null || isPartitioned(feature)) {
+                feature.addIterationInterceptor(this);
+            }
+        }
+
+        boolean interceptFeatures = StallWatchdog.isEnabled() || FailFast.isEnabled()
+                || isRestoringStatics();
+        for (FeatureInfo feature : spec.getAllFeatures()) {
+            if (interceptFeatures || isPartitioned(feature)) {
+                feature.addInterceptor(this);
+            }
+        }
+
+        if (StallWatchdog.isEnabled()) {
+            // the stall is reported as the failure of the method it happened in
+            for (SpecInfo level = spec; level != null; level = level.getSuperSpec()) {
+                level.addSetupInterceptor(this);
+                level.addCleanupInterceptor(this);
+            }
+            for (FeatureInfo feature : spec.getAllFeatures()) {
+                feature.getFeatureMethod().addInterceptor(this);
+            }
+        }
     }
 
 
     /**
      * Migrate from RobolectricTestRunner.methodBlock
      * Replace the classloader by Robolectric's when executing a specification. Restore it when
-     * execution finished.
+     * execution finished. Static fields of the sandbox are restored too, see StaticState.
      *
      * @param invocation The method invocation to be intercept
      */
     @Override
     public void interceptSpecExecution(IMethodInvocation invocation) throws Throwable {
 
-        Thread.currentThread().setContextClassLoader(
-                containedTestRunner.getContainedSdkEnvironment().getRobolectricClassLoader());
+        ClassLoader sandboxClassLoader = getSandboxClassLoader();
+        Thread.currentThread().setContextClassLoader(sandboxClassLoader);
+
+        if (StaticState.isEnabled()) {
+            StaticState.snapshot(sandboxClassLoader);
+        }
 
         try {
             containedTestRunner.containedBeforeTest();
@@ -64,9 +116,183 @@ public class ElectricSpockInterceptor extends AbstractMethodInterceptor {
         } finally {
             try {
                 containedTestRunner.containedAfterTest();
+                if (StaticState.isEnabled()) {
+                    StaticState.restore();
+                }
             } finally {
                 Thread.currentThread().setContextClassLoader(ElectricSputnik.class.getClassLoader());
             }
         }
     }
+
+    /**
+     * Skip the feature when FailFast is tripped, together with the remaining features of the
+     * specification.
+     *
+     * Fail a feature that stalls, see StallWatchdog. A stalled feature may leave threads and
+     * static state of the sandbox behind, so the sandbox is discarded and runners created
+     * afterward get a fresh one. Fixtures of the sandbox are torn down, and the remaining features
+     * of the specification are skipped rather than run in the discarded sandbox. Without sandbox,
+     * the remaining features are skipped all the same.
+     *
+     * Classes initialized by the previous feature are snapshotted before the feature, and those
+     * initialized by the feature after it, see StaticState.
+     *
+     * @param invocation The feature to be intercepted
+     */
+    @Override
+    public void interceptFeatureExecution(IMethodInvocation invocation) throws Throwable {
+
+        if (FailFast.isTripped()) {
+            // Spock checks it before starting each feature, so the rest are reported as ignored
+            for (FeatureInfo feature : invocation.getSpec().getAllFeatures()) {
+                feature.setSkipped(true);
+            }
+            // this one is started already, an assumption failure reports it as skipped
+            throw new AssumptionViolatedException("skipped after failures, see " + Settings.FAIL_FAST);
+        }
+
+        if (isPartitioned(invocation.getFeature())) {
+            // counted again while its data providers are created
+            DataPartition.takeTablesIterated();
+            partitionCheckPending = true;
+        }
+
+        if (!isRestoringStatics()) {
+            runFeature(invocation);
+            return;
+        }
+
+        StaticState.snapshot(getSandboxClassLoader());
+        try {
+            runFeature(invocation);
+        } finally {
+            StaticState.snapshot(getSandboxClassLoader());
+        }
+    }
+
+    private void runFeature(IMethodInvocation invocation) throws Throwable {
+
+        if (!StallWatchdog.isEnabled()) {
+            invocation.proceed();
+            return;
+        }
+
+        watch = StallWatchdog.watch(Thread.currentThread(), invocation.getFeature().getName());
+        stallReported = false;
+        try {
+            try {
+                invocation.proceed();
+            } finally {
+                watch.stop();
+            }
+        } catch (ThreadDeath e) {
+            // we stopped the thread ourselves, possibly on its way into watch.stop()
+            if (!watch.isFired()) throw e;
+            Thread.interrupted();
+        }
+
+        if (!watch.isFired()) return;
+
+        for (FeatureInfo feature : invocation.getSpec().getAllFeatures()) {
+            feature.setSkipped(true);
+        }
+        RuntimeException failure = stallFailure(null);
+        if (containedTestRunner != null) {
+            containedTestRunner.discardSandbox();
+            try {
+                SandboxFixtures.invalidateAll();
+            } catch (RuntimeException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        // Spock has reported it already if a method failed after the stall
+        if (!stallReported) throw failure;
+    }
+
+    @Override
+    public void interceptSetupMethod(IMethodInvocation invocation) throws Throwable {
+        reportStall(invocation);
+    }
+
+    @Override
+    public void interceptFeatureMethod(IMethodInvocation invocation) throws Throwable {
+        reportStall(invocation);
+    }
+
+    @Override
+    public void interceptCleanupMethod(IMethodInvocation invocation) throws Throwable {
+        reportStall(invocation);
+    }
+
+    /**
+     * Replace the failure of a method interrupted or stopped by StallWatchdog by the reason of the
+     * stall, so that the feature fails once, with the stall.
+     */
+    private void reportStall(IMethodInvocation invocation) throws Throwable {
+        try {
+            invocation.proceed();
+        } catch (Throwable e) {
+            if (watch == null || !watch.isFired() || stallReported) throw e;
+            stallReported = true;
+            // cleanup shall run without being interrupted or stopped again
+            try {
+                watch.stop();
+            } catch (ThreadDeath death) {
+                Thread.interrupted();
+            }
+            throw stallFailure(e);
+        }
+    }
+
+    private boolean isRestoringStatics() {
+        return containedTestRunner != null && StaticState.isEnabled();
+    }
+
+    private ClassLoader getSandboxClassLoader() {
+        return containedTestRunner.getContainedSdkEnvironment().getRobolectricClassLoader();
+    }
+
+    private RuntimeException stallFailure(Throwable cause) {
+        String message = containedTestRunner == null
+                ? watch.getReason()
+                : watch.getReason() + ", the sandbox is discarded";
+        return new RuntimeException(message, cause);
+    }
+
+    /**
+     * Restore the databases of DatabaseTemplate before each iteration, so that setup() of every
+     * feature sees freshly created databases.
+     *
+     * Fail a feature split by @Partitioned at its first iteration if some of its data providers
+     * are not DataTable. They would yield all their values in every partition.
+     *
+     * @param invocation The iteration to be intercepted
+     */
+    @Override
+    public void interceptIterationExecution(IMethodInvocation invocation) throws Throwable {
+
+        if (partitionCheckPending) {
+            partitionCheckPending = false;
+            FeatureInfo feature = invocation.getFeature();
+            if (DataPartition.takeTablesIterated() < feature.getDataProviders().size()) {
+                throw new InvalidSpecException("@Partitioned feature '" + feature.getName()
+                        + "' can only split DataTable, but not all of its data providers are");
+            }
+        }
+
+        if (databaseTemplate != null) {
+            for (Class<? extends DatabaseTemplate.Builder> builderClass : databaseTemplate.value()) {
+                DatabaseTemplates.restore(builderClass);
+            }
+        }
+
+        invocation.proceed();
+    }
+
+    /* split across workers, and this JVM runs a share of its rows */
+    private static boolean isPartitioned(FeatureInfo feature) {
+        return DataPartition.getCount() > 1
+                && feature.getFeatureMethod().getReflection().isAnnotationPresent(Partitioned.class);
+    }
 }
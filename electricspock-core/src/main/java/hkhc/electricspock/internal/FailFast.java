@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stop running features once electricspock.failFast features have failed. It is tripped once
+ * for the whole JVM:
+ *
+ * - specifications not yet started are reported as ignored without creating their sandbox
+ * - features not yet started are skipped, the running ones finish
+ * - cancellations registered with onTrip are run, e.g. to tell worker JVMs to do the same
+ *
+ * It must be loaded by the class loader of the runner, not in sandbox, so that features in all
+ * sandboxes see the same state.
+ */
+
+public class FailFast {
+
+    private static final AtomicInteger failures = new AtomicInteger();
+    private static volatile boolean tripped = false;
+    private static final List<Runnable> cancellations = new CopyOnWriteArrayList<>();
+
+    private FailFast() {
+    }
+
+    /**
+     * @return true if features may be skipped, either after failures of this JVM, or when the
+     * test JVM cancels this worker JVM
+     */
+    public static boolean isEnabled() {
+        return getMaxFailures() > 0 || Settings.getBoolean(Settings.WORKER, false);
+    }
+
+    private static int getMaxFailures() {
+        return Settings.getInt(Settings.FAIL_FAST, 0);
+    }
+
+    public static boolean isTripped() {
+        return tripped;
+    }
+
+    public static void recordFailure() {
+        int maxFailures = getMaxFailures();
+        if (maxFailures <= 0) return;
+        if (failures.incrementAndGet() >= maxFailures) {
+            trip();
+        }
+    }
+
+    /**
+     * Skip everything not yet started, regardless of the number of failures, e.g. when the
+     * test JVM tells a worker JVM to.
+     */
+    public static void trip() {
+        synchronized (FailFast.class) {
+            if (tripped) return;
+            tripped = true;
+        }
+        if (failures.get() > 0) {
+            System.err.println("ElectricSpock: " + failures.get()
+                    + " failures, remaining features are skipped");
+        }
+        for (Runnable cancellation : cancellations) {
+            try {
+                cancellation.run();
+            } catch (RuntimeException e) {
+                System.err.println("ElectricSpock: failed to cancel: " + e);
+            }
+        }
+    }
+
+    /**
+     * Forget the failures and the trip. A worker JVM does so after every request, so that a
+     * cancellation of one specification does not skip the next one sent to it.
+     */
+    public static void reset() {
+        synchronized (FailFast.class) {
+            tripped = false;
+            failures.set(0);
+        }
+    }
+
+    /**
+     * @param cancellation to be run once when it is tripped
+     */
+    public static void onTrip(Runnable cancellation) {
+        cancellations.add(cancellation);
+    }
+
+    /**
+     * @return a listener that counts the failures of the specifications run on the calling
+     * thread
+     */
+    public static RunListener newListener() {
+        return new FailureCounter(Thread.currentThread());
+    }
+
+    /* Events of specifications run concurrently on other threads are counted by their own listener */
+    @RunListener.ThreadSafe
+    private static class FailureCounter extends RunListener {
+
+        private final Thread owner;
+
+        FailureCounter(Thread owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void testFailure(Failure failure) {
+            if (Thread.currentThread() == owner) recordFailure();
+        }
+    }
+
+}
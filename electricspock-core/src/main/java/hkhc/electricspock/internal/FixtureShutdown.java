@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tear down SandboxFixtures of every sandbox still alive when the JVM exits. Robolectric evicts
+ * sandboxes from its cache without telling anyone, so fixtures of an evicted sandbox cannot be
+ * torn down when that happens; they are released with its class loader like any other object.
+ *
+ * Teardowns are held weakly, so that registering one does not keep an evicted sandbox in memory.
+ * Each SandboxFixtures class holds its own teardown, which lives as long as the sandbox.
+ *
+ * It must be loaded by the class loader of the runner, not in sandbox, so that one shutdown hook
+ * serves all sandboxes.
+ */
+
+public class FixtureShutdown {
+
+    private static final List<WeakReference<Runnable>> teardowns = new ArrayList<>();
+    private static boolean hookAdded = false;
+
+    private FixtureShutdown() {
+    }
+
+    public static synchronized void register(Runnable teardown) {
+        if (!hookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runAll();
+                }
+            }, "electricspock-fixture-shutdown"));
+            hookAdded = true;
+        }
+        teardowns.add(new WeakReference<>(teardown));
+    }
+
+    /* teardowns stay registered, as fixtures may be created again after they ran */
+    static void runAll() {
+        List<Runnable> alive = new ArrayList<>();
+        synchronized (FixtureShutdown.class) {
+            Iterator<WeakReference<Runnable>> iterator = teardowns.iterator();
+            while (iterator.hasNext()) {
+                Runnable teardown = iterator.next().get();
+                if (teardown == null) {
+                    iterator.remove();
+                } else {
+                    alive.add(teardown);
+                }
+            }
+        }
+        for (Runnable teardown : alive) {
+            try {
+                teardown.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
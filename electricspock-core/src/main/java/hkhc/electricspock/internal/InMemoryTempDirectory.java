@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Move the temporary directory of the test JVM to an in-memory filesystem.
+ *
+ * Robolectric creates the application, SharedPreferences and database directories of every test
+ * with Files.createTempDirectory, and deletes them afterward. When the property
+ * electricspock.tmpfs is set, java.io.tmpdir is pointed to a directory on tmpfs, so those
+ * directories never hit the disk. The directory is deleted as a whole when the JVM exits.
+ *
+ * The value of the property is either the path of a mounted tmpfs, or "true" for /dev/shm.
+ *
+ * The JDK reads java.io.tmpdir once, so this only works when it is installed before anything
+ * in the JVM creates a temporary file. It is installed when ElectricSputnik is loaded, which is
+ * often too late in a Gradle fork; a warning is printed then. The ElectricSpock Gradle plugin
+ * passes the directory on the command line of the fork instead, with electricspock.tmpfs.dir,
+ * and this class leaves it alone.
+ *
+ * Robolectric still deletes the directories of every test when the test finishes, only the
+ * deletion is cheap on tmpfs.
+ */
+
+public class InMemoryTempDirectory {
+
+    private static final String DEFAULT_TMPFS = "/dev/shm";
+
+    /* set when installed, so that it is installed once even if this class is loaded again in
+    sandbox. The Gradle plugin sets it on the command line together with java.io.tmpdir */
+    private static final String INSTALLED_DIR = "electricspock.tmpfs.dir";
+
+    private InMemoryTempDirectory() {
+    }
+
+    public static synchronized void install() {
+
+        String tmpfs = Settings.getString(Settings.TMPFS, null);
+        if (tmpfs == null || "false".equalsIgnoreCase(tmpfs)) return;
+        if (System.getProperty(INSTALLED_DIR) != null) return;
+
+        File base = new File("true".equalsIgnoreCase(tmpfs) ? DEFAULT_TMPFS : tmpfs);
+        if (!base.isDirectory() || !base.canWrite()) {
+            System.err.println("ElectricSpock: " + base + " is not a writable directory, "
+                    + Settings.TMPFS + " is ignored");
+            return;
+        }
+
+        final File dir = new File(base, "electricspock-" + System.nanoTime());
+        if (!dir.mkdirs()) {
+            System.err.println("ElectricSpock: failed to create " + dir + ", "
+                    + Settings.TMPFS + " is ignored");
+            return;
+        }
+
+        String originalDir = System.getProperty("java.io.tmpdir");
+        System.setProperty(INSTALLED_DIR, dir.getPath());
+        System.setProperty("java.io.tmpdir", dir.getPath());
+        if (!isInUse(dir)) {
+            System.err.println("ElectricSpock: java.io.tmpdir was read before " + Settings.TMPFS
+                    + " is applied, some temporary files stay in " + originalDir
+                    + ". Pass -Djava.io.tmpdir with the JVM arguments of the test task, or use"
+                    + " tmpfs of the ElectricSpock Gradle plugin.");
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread("electricspock-tmpfs-cleanup") {
+            @Override
+            public void run() {
+                delete(dir);
+            }
+        });
+
+    }
+
+    /**
+     * File and Files keep java.io.tmpdir from their first temporary file, so check where they
+     * create one now
+     */
+    private static boolean isInUse(File dir) {
+        try {
+            File file = File.createTempFile("electricspock", ".probe");
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            Path path = Files.createTempFile("electricspock", ".probe");
+            Files.delete(path);
+            return dir.equals(file.getParentFile()) && dir.toPath().equals(path.getParent());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.io.Serializable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Heap and GC figures of a JVM at a moment. Worker JVMs send them to the test JVM, so it is
+ * Serializable.
+ */
+
+public class LoadSample implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long timeMillis;
+    private final long heapUsedBytes;
+    private final long heapMaxBytes;
+    private final long gcMillis;
+
+    LoadSample(long timeMillis, long heapUsedBytes, long heapMaxBytes, long gcMillis) {
+        this.timeMillis = timeMillis;
+        this.heapUsedBytes = heapUsedBytes;
+        this.heapMaxBytes = heapMaxBytes;
+        this.gcMillis = gcMillis;
+    }
+
+    /**
+     * Heap in use is taken right after the last collection of each pool where the JVM tells,
+     * since the heap in use at any moment is mostly garbage.
+     *
+     * @return figures of this JVM
+     */
+    public static LoadSample current() {
+
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) continue;
+            used += getUsedAfterGc(pool.getCollectionUsage(), pool.getUsage());
+        }
+
+        long max = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+        if (max <= 0) max = Runtime.getRuntime().maxMemory();
+
+        long gc = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gc += Math.max(0, collector.getCollectionTime());
+        }
+
+        return new LoadSample(System.currentTimeMillis(), used, max, gc);
+
+    }
+
+    /**
+     * The usage after collection of a pool that was not collected yet has nothing committed,
+     * e.g. of the old generation until its first old GC, although the pool may hold most of the
+     * heap. Its current usage is taken then.
+     *
+     * @param collectionUsage usage of a pool after its last collection, null if not supported
+     * @param usage           current usage of the pool
+     * @return bytes in use of the pool
+     */
+    static long getUsedAfterGc(MemoryUsage collectionUsage, MemoryUsage usage) {
+        if (collectionUsage == null || collectionUsage.getCommitted() == 0) return usage.getUsed();
+        return collectionUsage.getUsed();
+    }
+
+    /**
+     * @return heap in use after the last collections
+     */
+    public long getHeapUsedBytes() {
+        return heapUsedBytes;
+    }
+
+    /**
+     * @return fraction of the maximum heap that is free
+     */
+    public double getHeadroom() {
+        if (heapMaxBytes <= 0) return 1;
+        return Math.max(0, 1 - (double) heapUsedBytes / heapMaxBytes);
+    }
+
+    /**
+     * @param earlier an earlier sample of the same JVM
+     * @return fraction of the time between the samples spent in GC
+     */
+    public double getGcOverheadSince(LoadSample earlier) {
+        if (earlier == null) return 0;
+        long elapsed = timeMillis - earlier.timeMillis;
+        if (elapsed <= 0) return 0;
+        return Math.min(1, (double) (gcMillis - earlier.gcMillis) / elapsed);
+    }
+
+}
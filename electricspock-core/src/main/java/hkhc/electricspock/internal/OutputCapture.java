@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Capture stdout and stderr of every feature into an OutputRing, instead of passing them to the
+ * console. The output of a feature is printed only when it fails, and is kept for reporters until
+ * it is overwritten.
+ *
+ * Output is attributed to the feature running on the writing thread. Output of other threads is
+ * passed through. In a worker JVM, the output of a failing feature is sent with its failure event
+ * instead of being printed, see WorkerMain.
+ *
+ * It must be loaded by the class loader of the runner, not in sandbox, as System.out is global.
+ */
+
+public class OutputCapture {
+
+    private static final int MB = 1024 * 1024;
+
+    private static OutputCapture instance = null;
+
+    private final OutputRing ring;
+    private final PrintStream originalOut;
+
+    /* position of the last chunk of the feature running on the thread */
+    private final ThreadLocal<long[]> current = new ThreadLocal<>();
+
+    /* position of the last chunk of every feature, for reporters */
+    private final Map<Description, Long> lastChunks = new LinkedHashMap<>();
+
+    private OutputCapture(OutputRing ring) {
+        this.ring = ring;
+        this.originalOut = System.out;
+        System.setOut(new PrintStream(new CapturingStream(System.out), true));
+        System.setErr(new PrintStream(new CapturingStream(System.err), true));
+    }
+
+    public static boolean isEnabled() {
+        return Settings.getBoolean(Settings.CAPTURE_OUTPUT, false);
+    }
+
+    /**
+     * @return the capture, installed on first call, or null if it is disabled or cannot be
+     * installed
+     */
+    public static synchronized OutputCapture getInstance() {
+        if (instance == null && isEnabled()) {
+            try {
+                instance = new OutputCapture(new OutputRing(
+                        Math.max(1, Settings.getInt(Settings.OUTPUT_BUFFER, 16)) * MB));
+            } catch (IOException e) {
+                System.err.println("ElectricSpock: failed to create output ring, "
+                        + Settings.CAPTURE_OUTPUT + " is ignored: " + e);
+                System.setProperty(Settings.CAPTURE_OUTPUT, "false");
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param description description of a feature or iteration run in this JVM
+     * @return the output of it that is not yet overwritten, or null if it is not captured
+     */
+    public String getOutput(Description description) {
+        Long last;
+        synchronized (lastChunks) {
+            last = lastChunks.get(description);
+        }
+        if (last == null) return null;
+        return new String(ring.read(last), Charset.defaultCharset());
+    }
+
+    /**
+     * @return a listener that captures the features run on the calling thread
+     */
+    public RunListener newListener() {
+        return new CaptureListener(Thread.currentThread());
+    }
+
+    private void begin() {
+        current.set(new long[]{OutputRing.NONE});
+    }
+
+    private void end(Description description) {
+        long[] last = current.get();
+        current.remove();
+        if (last == null || last[0] == OutputRing.NONE) return;
+        synchronized (lastChunks) {
+            lastChunks.put(description, last[0]);
+            // forget features whose output is overwritten entirely, the rest is still useful
+            Iterator<Long> it = lastChunks.values().iterator();
+            while (it.hasNext() && ring.isOverwritten(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param description description of the feature running on the calling thread
+     * @return the output of the feature as printed when it fails, or null if it has no output
+     */
+    public String getFailureOutput(Description description) {
+        long[] last = current.get();
+        if (last == null || last[0] == OutputRing.NONE) return null;
+        String lineSeparator = System.getProperty("line.separator");
+        return "--- output of " + description.getDisplayName()
+                + (ring.isTruncated(last[0]) ? " (beginning overwritten)" : "") + " ---"
+                + lineSeparator
+                + new String(ring.read(last[0]), Charset.defaultCharset())
+                + lineSeparator + "---" + lineSeparator;
+    }
+
+    private void printFailure(Description description) {
+        // a worker sends it to the test JVM with the failure
+        if (Settings.getBoolean(Settings.WORKER, false)) return;
+        String output = getFailureOutput(description);
+        if (output == null) return;
+        synchronized (originalOut) {
+            originalOut.print(output);
+            originalOut.flush();
+        }
+    }
+
+    private class CapturingStream extends OutputStream {
+
+        private final PrintStream original;
+
+        CapturingStream(PrintStream original) {
+            this.original = original;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            long[] last = current.get();
+            if (last == null) {
+                original.write(bytes, offset, length);
+            } else if (length > 0) {
+                last[0] = ring.append(last[0], bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (current.get() == null) original.flush();
+        }
+    }
+
+    /* Events of specifications run concurrently on other threads are not for this listener */
+    @RunListener.ThreadSafe
+    private class CaptureListener extends RunListener {
+
+        private final Thread owner;
+
+        CaptureListener(Thread owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void testStarted(Description description) {
+            if (Thread.currentThread() == owner) begin();
+        }
+
+        @Override
+        public void testFailure(Failure failure) {
+            if (Thread.currentThread() == owner) printFailure(failure.getDescription());
+        }
+
+        @Override
+        public void testFinished(Description description) {
+            if (Thread.currentThread() == owner) end(description);
+        }
+    }
+
+}
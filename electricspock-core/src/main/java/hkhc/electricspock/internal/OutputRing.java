@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Ring buffer of output chunks in a memory-mapped file. Bytes are written once into the mapped
+ * file, and the operating system pages them out if needed, so the heap is not filled by output
+ * that is never read.
+ *
+ * Every chunk has a header of its length and the position of the previous chunk of the same
+ * feature, so the chunks of a feature are linked backward from its last chunk. The oldest chunks
+ * are overwritten when the ring is full, then only the tail of the output of a feature is
+ * available.
+ *
+ * Positions are logical, they keep growing and are taken modulo the capacity.
+ */
+
+public class OutputRing {
+
+    /* no previous chunk */
+    public static final long NONE = -1;
+
+    /* length and position of previous chunk */
+    private static final int HEADER_SIZE = 4 + 8;
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    /* logical position of next chunk */
+    private long end = 0;
+
+    public OutputRing(int capacity) throws IOException {
+        File file = File.createTempFile("electricspock-output", ".ring");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param previous position of the previous chunk of the same feature, or NONE
+     * @return position of the chunk written
+     */
+    public synchronized long append(long previous, byte[] bytes, int offset, int length) {
+        // a chunk larger than the ring would overwrite itself, keep its tail
+        int maxLength = capacity - HEADER_SIZE;
+        if (length > maxLength) {
+            offset += length - maxLength;
+            length = maxLength;
+        }
+        long position = end;
+        putInt(position, length);
+        putLong(position + 4, previous);
+        put(position + HEADER_SIZE, bytes, offset, length);
+        end = position + HEADER_SIZE + length;
+        return position;
+    }
+
+    /**
+     * @param last position of the last chunk of a feature, or NONE
+     * @return output of the feature that is not yet overwritten
+     */
+    public synchronized byte[] read(long last) {
+        // walk backward to the oldest chunk still in the ring, then copy forward
+        long oldest = end - capacity;
+        int count = 0;
+        long[] chunks = new long[16];
+        for (long position = last; position != NONE && position >= oldest; position = getLong(position + 4)) {
+            if (count == chunks.length) {
+                long[] grown = new long[count * 2];
+                System.arraycopy(chunks, 0, grown, 0, count);
+                chunks = grown;
+            }
+            chunks[count++] = position;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = count - 1; i >= 0; i--) {
+            int length = getInt(chunks[i]);
+            byte[] bytes = new byte[length];
+            get(chunks[i] + HEADER_SIZE, bytes);
+            out.write(bytes, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param last position of the last chunk of a feature
+     * @return true if all output of the feature was overwritten
+     */
+    public synchronized boolean isOverwritten(long last) {
+        return last != NONE && last < end - capacity;
+    }
+
+    /**
+     * @param last position of the last chunk of a feature
+     * @return true if the first chunk of the feature was overwritten
+     */
+    public synchronized boolean isTruncated(long last) {
+        long oldest = end - capacity;
+        long position = last;
+        while (position != NONE) {
+            if (position < oldest) return true;
+            position = getLong(position + 4);
+        }
+        return false;
+    }
+
+    private void put(long position, byte[] bytes, int offset, int length) {
+        int index = (int) (position % capacity);
+        int first = Math.min(length, capacity - index);
+        buffer.position(index);
+        buffer.put(bytes, offset, first);
+        if (first < length) {
+            buffer.position(0);
+            buffer.put(bytes, offset + first, length - first);
+        }
+    }
+
+    private void get(long position, byte[] bytes) {
+        int index = (int) (position % capacity);
+        int first = Math.min(bytes.length, capacity - index);
+        buffer.position(index);
+        buffer.get(bytes, 0, first);
+        if (first < bytes.length) {
+            buffer.position(0);
+            buffer.get(bytes, first, bytes.length - first);
+        }
+    }
+
+    private void putInt(long position, int value) {
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            bytes[i] = (byte) (value >>> (24 - i * 8));
+        }
+        put(position, bytes, 0, 4);
+    }
+
+    private int getInt(long position) {
+        byte[] bytes = new byte[4];
+        get(position, bytes);
+        int value = 0;
+        for (byte b : bytes) {
+            value = (value << 8) | (b & 0xff);
+        }
+        return value;
+    }
+
+    private void putLong(long position, long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (value >>> (56 - i * 8));
+        }
+        put(position, bytes, 0, 8);
+    }
+
+    private long getLong(long position) {
+        byte[] bytes = new byte[8];
+        get(position, bytes);
+        long value = 0;
+        for (byte b : bytes) {
+            value = (value << 8) | (b & 0xff);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Sandbox footprint and timing of this test JVM. When electricspock.metrics.dir is set, they are
+ * written to a properties file in that directory when the JVM exits, one file per fork. The
+ * ElectricSpock Gradle plugin reads them to tune the forks of the next run.
+ */
+
+public class RunnerMetrics {
+
+    public static final String SANDBOXES = "sandboxes";
+    public static final String SANDBOX_STARTUP_MILLIS = "sandboxStartupMillis";
+    public static final String MAX_SANDBOX_STARTUP_MILLIS = "maxSandboxStartupMillis";
+    public static final String SPECS = "specs";
+    public static final String SPEC_MILLIS = "specMillis";
+    public static final String PEAK_HEAP_BYTES = "peakHeapBytes";
+    public static final String PEAK_NON_HEAP_BYTES = "peakNonHeapBytes";
+    public static final String MAX_HEAP_BYTES = "maxHeapBytes";
+    public static final String FORK_MILLIS = "forkMillis";
+
+    private static final RunnerMetrics instance = new RunnerMetrics();
+
+    private final Set<Object> sandboxes = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private long sandboxStartupMillis = 0;
+    private long maxSandboxStartupMillis = 0;
+    private int specs = 0;
+    private long specMillis = 0;
+    private long peakHeapBytes = 0;
+
+    static {
+        final String dir = Settings.getString(Settings.METRICS_DIR, null);
+        if (dir != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread("electricspock-metrics") {
+                @Override
+                public void run() {
+                    try {
+                        instance.write(new File(dir));
+                    } catch (IOException e) {
+                        System.err.println("ElectricSpock: failed to write metrics to " + dir + ": " + e);
+                    }
+                }
+            });
+        }
+    }
+
+    public static RunnerMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Record the time to obtain a sandbox. Only the first time of each sandbox counts, as later
+     * runners get the cached one.
+     */
+    public synchronized void sandboxObtained(Object sandbox, long millis) {
+        if (sandboxes.add(sandbox)) {
+            sandboxStartupMillis += millis;
+            maxSandboxStartupMillis = Math.max(maxSandboxStartupMillis, millis);
+        }
+    }
+
+    /**
+     * Heap in use is sampled after every specification, from the last collection of each heap
+     * pool (see LoadSample). Peak usage of the pools would count garbage of the young generation
+     * waiting to be collected, and overstate the heap a fork needs.
+     */
+    public synchronized void specFinished(long millis) {
+        specs++;
+        specMillis += millis;
+        sampleHeap();
+    }
+
+    private void sampleHeap() {
+        peakHeapBytes = Math.max(peakHeapBytes, LoadSample.current().getHeapUsedBytes());
+    }
+
+    public synchronized Properties toProperties() {
+        sampleHeap();
+        Properties properties = new Properties();
+        properties.setProperty(SANDBOXES, String.valueOf(sandboxes.size()));
+        properties.setProperty(SANDBOX_STARTUP_MILLIS, String.valueOf(sandboxStartupMillis));
+        properties.setProperty(MAX_SANDBOX_STARTUP_MILLIS, String.valueOf(maxSandboxStartupMillis));
+        properties.setProperty(SPECS, String.valueOf(specs));
+        properties.setProperty(SPEC_MILLIS, String.valueOf(specMillis));
+        properties.setProperty(PEAK_HEAP_BYTES, String.valueOf(peakHeapBytes));
+        properties.setProperty(PEAK_NON_HEAP_BYTES, String.valueOf(peakUsage(MemoryType.NON_HEAP)));
+        properties.setProperty(MAX_HEAP_BYTES, String.valueOf(Runtime.getRuntime().maxMemory()));
+        properties.setProperty(FORK_MILLIS,
+                String.valueOf(ManagementFactory.getRuntimeMXBean().getUptime()));
+        return properties;
+    }
+
+    /* non-heap is not collected as such, metaspace and code cache only grow with sandboxes */
+    private static long peakUsage(MemoryType type) {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == type && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private void write(File dir) throws IOException {
+        if (specs == 0) return;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory");
+        }
+        File file = File.createTempFile("fork-", ".properties", dir);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            toProperties().store(out, "ElectricSpock runner metrics");
+        } finally {
+            out.close();
+        }
+    }
+
+}
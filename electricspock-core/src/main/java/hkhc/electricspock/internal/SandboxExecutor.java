@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded thread pool to create sandboxes in background. Runners submit their sandbox creation
+ * here when they are constructed, and only wait for it when they are actually used. It overlaps
+ * sandbox creation when runners are constructed together, e.g. by ElectricSuite or a JUnit request
+ * of several classes, and not when each runner is run right after construction, as in Gradle.
+ *
+ * A sandbox takes a large share of the heap, so the number of sandboxes created at once follows
+ * heap and GC load of the JVM, see AdaptiveConcurrency.
+ */
+
+public class SandboxExecutor {
+
+    private static final AdaptiveConcurrency concurrency = new AdaptiveConcurrency("sandbox",
+            Settings.getInt(Settings.SANDBOX_THREADS, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            concurrency.getMax(),
+            new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "electricspock-sandbox-" + count.incrementAndGet());
+                    // do not keep the test JVM alive
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private SandboxExecutor() {
+    }
+
+    public static <T> Future<T> submit(final Callable<T> task) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                concurrency.acquire();
+                try {
+                    return task.call();
+                } finally {
+                    concurrency.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for the task to finish, and rethrow its failure as unchecked exception
+     *
+     * @param future the future obtained from submit
+     * @return result of the task
+     */
+    public static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which specifications ran in sandbox and which did not, and why. When electricspock.report.dir
+ * is set, it is written to a text file in that directory when the JVM exits, one file per fork
+ * and one line per specification.
+ */
+
+public class SandboxPathReport {
+
+    private static final List<String> lines = new ArrayList<>();
+
+    static {
+        final String dir = Settings.getString(Settings.REPORT_DIR, null);
+        if (dir != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread("electricspock-sandbox-report") {
+                @Override
+                public void run() {
+                    try {
+                        write(new File(dir));
+                    } catch (IOException e) {
+                        System.err.println("ElectricSpock: failed to write report to " + dir + ": " + e);
+                    }
+                }
+            });
+        }
+    }
+
+    private SandboxPathReport() {
+    }
+
+    public static void record(Class<?> specClass, boolean sandboxed, String reason) {
+        synchronized (lines) {
+            lines.add(specClass.getName() + "\t" + (sandboxed ? "sandbox" : "plain") + "\t" + reason);
+        }
+    }
+
+    private static void write(File dir) throws IOException {
+        synchronized (lines) {
+            if (lines.isEmpty()) return;
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create directory");
+            }
+            File file = File.createTempFile("sandbox-paths-", ".txt", dir);
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+/**
+ * Runner settings. They are given as system properties of the test JVM, e.g. with
+ * <code>systemProperty</code> of the Gradle Test task.
+ */
+
+public class Settings {
+
+    /* Number of threads used to create sandboxes in background */
+    public static final String SANDBOX_THREADS = "electricspock.sandbox.threads";
+
+    /* Path of tmpfs to keep temporary directories of sandboxes, or "true" for /dev/shm */
+    public static final String TMPFS = "electricspock.tmpfs";
+
+    /* Directory to write sandbox footprint and timing of each fork */
+    public static final String METRICS_DIR = "electricspock.metrics.dir";
+
+    /* Time budget of a feature in seconds, 0 for no limit */
+    public static final String FEATURE_TIMEOUT = "electricspock.feature.timeout";
+
+    /* Time in seconds a feature may make no progress, 0 for no limit */
+    public static final String STALL_TIMEOUT = "electricspock.stall.timeout";
+
+    /* Load Groovy and Spock runtime once outside sandboxes, true by default */
+    public static final String SHARE_RUNTIME = "electricspock.shareRuntime";
+
+    /* Comma-separated package prefixes to be loaded once outside sandboxes */
+    public static final String SHARED_PACKAGES = "electricspock.sharedPackages";
+
+    /* Run specifications without Android reference out of sandbox, true by default */
+    public static final String DETECT_SANDBOX = "electricspock.detectSandbox";
+
+    /* Directory to write which specifications ran in sandbox */
+    public static final String REPORT_DIR = "electricspock.report.dir";
+
+    /* "process" to run sandboxed specifications in worker JVMs, "inprocess" by default */
+    public static final String EXECUTION = "electricspock.execution";
+
+    /* Number of worker JVMs */
+    public static final String WORKERS = "electricspock.workers";
+
+    /* Extra JVM arguments of worker JVMs, separated by space */
+    public static final String WORKER_JVM_ARGS = "electricspock.worker.jvmArgs";
+
+    /* Set in worker JVMs */
+    public static final String WORKER = "electricspock.worker";
+
+    /* Capture output of every feature, and print it only when the feature fails */
+    public static final String CAPTURE_OUTPUT = "electricspock.output.capture";
+
+    /* Size in megabytes of the ring file keeping captured output, 16 by default */
+    public static final String OUTPUT_BUFFER = "electricspock.output.buffer";
+
+    /* Adjust the number of concurrent sandboxes or workers to heap, GC and CPU load, true by default */
+    public static final String ADAPTIVE = "electricspock.adaptive";
+
+    /* Lower bound of concurrent sandboxes or workers when it is adjusted, 1 by default */
+    public static final String MIN_WORKERS = "electricspock.workers.min";
+
+    /* Restore static fields of sandbox classes after every specification, false by default */
+    public static final String RESTORE_STATICS = "electricspock.restoreStatics";
+
+    /* Skip the remaining features after this number of failures, 0 for never */
+    public static final String FAIL_FAST = "electricspock.failFast";
+
+    private Settings() {
+    }
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' of property " + name, e);
+        }
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' of property " + name, e);
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        if (value == null) return defaultValue;
+        return Boolean.parseBoolean(value);
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch the thread running a feature. The feature is considered stalled when it runs longer than
+ * electricspock.feature.timeout, or when the stack of the thread does not change for
+ * electricspock.stall.timeout (both in seconds, 0 to disable). Robolectric runs the main looper
+ * on the test thread, so the latter also catches a main looper that makes no progress.
+ *
+ * When a feature stalls, all threads are dumped to stderr and the test thread is interrupted. If
+ * it does not return within a grace period, it is stopped.
+ *
+ * It must be loaded by the class loader of the runner, not in sandbox: its timer thread would
+ * keep the class loader of a discarded sandbox reachable.
+ */
+
+public class StallWatchdog {
+
+    private static final long GRACE_MILLIS = 5000;
+    private static final long MIN_PERIOD_MILLIS = 100;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "electricspock-watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private StallWatchdog() {
+    }
+
+    public static long getFeatureTimeoutMillis() {
+        return Settings.getLong(Settings.FEATURE_TIMEOUT, 0) * 1000;
+    }
+
+    public static long getStallTimeoutMillis() {
+        return Settings.getLong(Settings.STALL_TIMEOUT, 0) * 1000;
+    }
+
+    public static boolean isEnabled() {
+        return getFeatureTimeoutMillis() > 0 || getStallTimeoutMillis() > 0;
+    }
+
+    /**
+     * Start watching the thread
+     *
+     * @param thread thread running the feature
+     * @param name   name of the feature, for the thread dump
+     * @return the watch, to be stopped when the feature finishes
+     */
+    public static Watch watch(Thread thread, String name) {
+        return watch(thread, name, getFeatureTimeoutMillis(), getStallTimeoutMillis(), GRACE_MILLIS);
+    }
+
+    static Watch watch(Thread thread, String name, long timeout, long stallTimeout, long graceMillis) {
+        long period = Math.max(MIN_PERIOD_MILLIS, Math.min(
+                timeout > 0 ? timeout : Long.MAX_VALUE,
+                stallTimeout > 0 ? stallTimeout : Long.MAX_VALUE) / 10);
+
+        Watch watch = new Watch(thread, name, timeout, stallTimeout, graceMillis);
+        synchronized (watch) {
+            watch.future = timer.scheduleAtFixedRate(watch, period, period, TimeUnit.MILLISECONDS);
+        }
+        return watch;
+    }
+
+    private static void dumpThreads(String reason) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ElectricSpock: ").append(reason).append(". Thread dump:\n");
+        for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+            Thread t = entry.getKey();
+            sb.append('"').append(t.getName()).append("\" ").append(t.getState()).append('\n');
+            for (StackTraceElement element : entry.getValue()) {
+                sb.append("\tat ").append(element).append('\n');
+            }
+            sb.append('\n');
+        }
+        System.err.print(sb);
+    }
+
+    public static class Watch implements Runnable {
+
+        private final Thread thread;
+        private final String name;
+        private final long timeoutMillis;
+        private final long stallTimeoutMillis;
+        private final long graceMillis;
+        private final long startTime = System.currentTimeMillis();
+
+        private StackTraceElement[] lastStack = null;
+        private long lastProgressTime = startTime;
+        private ScheduledFuture<?> future;
+        private String reason = null;
+        private boolean stopped = false;
+
+        private Watch(Thread thread, String name, long timeoutMillis, long stallTimeoutMillis,
+                      long graceMillis) {
+            this.thread = thread;
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+            this.stallTimeoutMillis = stallTimeoutMillis;
+            this.graceMillis = graceMillis;
+        }
+
+        @Override
+        public synchronized void run() {
+
+            if (stopped || reason != null) return;
+
+            long now = System.currentTimeMillis();
+            StackTraceElement[] stack = thread.getStackTrace();
+            if (!Arrays.equals(stack, lastStack)) {
+                lastStack = stack;
+                lastProgressTime = now;
+            }
+
+            if (timeoutMillis > 0 && now - startTime > timeoutMillis) {
+                fire("Feature '" + name + "' exceeded its budget of " + timeoutMillis + "ms");
+            } else if (stallTimeoutMillis > 0 && now - lastProgressTime > stallTimeoutMillis) {
+                fire("Feature '" + name + "' made no progress for " + stallTimeoutMillis + "ms");
+            }
+
+        }
+
+        private void fire(String reason) {
+            this.reason = reason;
+            future.cancel(false);
+            dumpThreads(reason);
+            thread.interrupt();
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    forceStop();
+                }
+            }, graceMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * The feature thread takes the same lock to stop the watch, so the thread is only stopped
+         * while the watch is running. ThreadDeath may still arrive while the thread waits for the
+         * lock in stop(), so the caller catches it around stop() too.
+         */
+        @SuppressWarnings("deprecation")
+        private synchronized void forceStop() {
+            if (stopped) return;
+            // once only, the thread may still be unwinding when it enters stop()
+            stopped = true;
+            future.cancel(false);
+            try {
+                thread.stop();
+            } catch (UnsupportedOperationException e) {
+                // Thread.stop is not supported by the JVM, nothing more we can do
+            }
+        }
+
+        /**
+         * Stop watching. It shall be called by the watched thread, and is a no-op after the first
+         * call.
+         */
+        public synchronized void stop() {
+            if (stopped) return;
+            stopped = true;
+            future.cancel(false);
+            // clear an interrupt the feature did not consume
+            if (reason != null) Thread.interrupted();
+        }
+
+        public synchronized boolean isFired() {
+            return reason != null;
+        }
+
+        public synchronized String getReason() {
+            return reason;
+        }
+
+    }
+
+}
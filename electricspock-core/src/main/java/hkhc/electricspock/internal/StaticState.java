@@ -0,0 +1,230 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Snapshot of static fields of the classes in a sandbox, so that they are put back after every
+ * specification, and the next specification sees the sandbox almost as fresh as a new one.
+ *
+ * Snapshots are taken right after the sandbox is bootstrapped, and when every specification and
+ * every feature starts and finishes. The snapshot of a class is taken at the first of them after
+ * the class is initialized: classes initialized while bootstrapping the sandbox are restored to
+ * their bootstrapped state, and classes initialized by a feature to their state at its end.
+ * Only fields that changed are written back, that is, primitive fields of different value and
+ * reference fields pointing to another object. Objects mutated in place, e.g. a static list that
+ * got more elements, are not detected.
+ *
+ * Robolectric resets its own state and that of shadowed framework classes, so its classes and
+ * the Android framework are left alone, as is ElectricSpock's own state, e.g. SandboxFixtures.
+ *
+ * This class is loaded by the sandbox, so every sandbox has its own snapshot.
+ */
+
+public class StaticState {
+
+    /* package and class name prefixes. ElectricSpock classes are listed one by one, as the
+    application may share their package */
+    private static final List<String> EXCLUDED_PACKAGES = Arrays.asList(
+            "org.robolectric.",
+            "android.",
+            "com.android.",
+            "dalvik.",
+            "libcore.",
+            "hkhc.electricspock.internal.",
+            "hkhc.electricspock.runner.",
+            "hkhc.electricspock.ElectricSputnik",
+            "hkhc.electricspock.ElectricSpecification",
+            "hkhc.electricspock.DataTable",
+            "hkhc.electricspock.DatabaseTemplate",
+            "hkhc.electricspock.FeatureOutput",
+            "hkhc.electricspock.SandboxFixtures",
+            "java.",
+            "javax.",
+            "sun.",
+            "com.sun.",
+            "jdk."
+    );
+
+    /* baseline value of every static field of snapshotted classes */
+    private static final Map<Field, Object> baseline = new LinkedHashMap<>();
+    private static final Set<Class<?>> snapshotted =
+            Collections.newSetFromMap(new IdentityHashMap<Class<?>, Boolean>());
+
+    private static boolean unsupported = false;
+
+    private static Method shouldBeInitialized = null;
+    private static Object unsafe = null;
+
+    private StaticState() {
+    }
+
+    public static boolean isEnabled() {
+        return Settings.getBoolean(Settings.RESTORE_STATICS, false) && !unsupported;
+    }
+
+    /**
+     * Take snapshot of the classes of the class loader that are initialized and not yet
+     * snapshotted.
+     *
+     * @param classLoader the sandbox class loader
+     */
+    public static synchronized void snapshot(ClassLoader classLoader) {
+        List<Class<?>> classes = getLoadedClasses(classLoader);
+        if (classes == null) return;
+
+        for (Class<?> c : classes) {
+            if (snapshotted.contains(c) || isExcluded(c) || !isInitialized(c)) continue;
+            snapshotted.add(c);
+            Field[] fields;
+            try {
+                fields = c.getDeclaredFields();
+            } catch (Throwable e) {
+                // a type of the fields cannot be loaded
+                continue;
+            }
+            for (Field field : fields) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) continue;
+                // e.g. probes added by coverage agents
+                if (field.isSynthetic()) continue;
+                try {
+                    field.setAccessible(true);
+                    baseline.put(field, field.get(null));
+                } catch (Throwable e) {
+                    // not accessible, leave it alone
+                }
+            }
+        }
+    }
+
+    /**
+     * Write back the fields that changed since their snapshot
+     *
+     * @return number of fields restored
+     */
+    public static synchronized int restore() {
+        int restored = 0;
+        Iterator<Map.Entry<Field, Object>> it = baseline.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Field, Object> entry = it.next();
+            Field field = entry.getKey();
+            try {
+                Object value = field.get(null);
+                if (isChanged(field, entry.getValue(), value)) {
+                    field.set(null, entry.getValue());
+                    restored++;
+                }
+            } catch (Throwable e) {
+                it.remove();
+            }
+        }
+        return restored;
+    }
+
+    private static boolean isChanged(Field field, Object baselineValue, Object value) {
+        if (field.getType().isPrimitive()) {
+            return !baselineValue.equals(value);
+        }
+        return baselineValue != value;
+    }
+
+    private static boolean isExcluded(Class<?> c) {
+        if (c.isInterface() || c.isArray() || c.isPrimitive()) return true;
+        String name = c.getName();
+        for (String packageName : EXCLUDED_PACKAGES) {
+            if (name.startsWith(packageName)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reading a static field initializes its class, which would run static initializers of
+     * classes that are loaded but never used. So only initialized classes are taken, as told by
+     * Unsafe.
+     */
+    private static boolean isInitialized(Class<?> c) {
+        try {
+            if (shouldBeInitialized == null) {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafe = theUnsafe.get(null);
+                shouldBeInitialized = unsafeClass.getMethod("shouldBeInitialized", Class.class);
+            }
+            return !((Boolean) shouldBeInitialized.invoke(unsafe, c));
+        } catch (Throwable e) {
+            disable("cannot tell if a class is initialized: " + e);
+            return false;
+        }
+    }
+
+    private static List<Class<?>> getLoadedClasses(ClassLoader classLoader) {
+        if (unsupported) return null;
+        try {
+            // classes defined by the class loader. The class loader adds to it while locking it
+            List<Class<?>> classes = readClassesField(classLoader);
+            synchronized (classes) {
+                return new ArrayList<>(classes);
+            }
+        } catch (Throwable e) {
+            // e.g. java.lang is not opened to ElectricSpock on JDK 9 or later
+            disable("cannot list classes of sandbox: " + e);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Class<?>> readClassesField(ClassLoader classLoader) throws Throwable {
+        try {
+            Field classesField = ClassLoader.class.getDeclaredField("classes");
+            classesField.setAccessible(true);
+            return (List<Class<?>>) classesField.get(classLoader);
+        } catch (NoSuchFieldException e) {
+            // hidden from reflection since JDK 12, but still reachable with a private lookup
+            Method privateLookupIn = MethodHandles.class.getMethod("privateLookupIn",
+                    Class.class, MethodHandles.Lookup.class);
+            MethodHandles.Lookup lookup = (MethodHandles.Lookup) privateLookupIn.invoke(null,
+                    ClassLoader.class, MethodHandles.lookup());
+            MethodHandle getter = lookup.findGetter(ClassLoader.class, "classes", ArrayList.class);
+            return (List<Class<?>>) getter.invoke(classLoader);
+        }
+    }
+
+    private static void disable(String reason) {
+        if (!unsupported) {
+            unsupported = true;
+            System.err.println("ElectricSpock: " + Settings.RESTORE_STATICS + " is ignored, " + reason);
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal.worker;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.spockframework.runtime.InvalidSpecException;
+import org.spockframework.runtime.model.FeatureInfo;
+import org.spockframework.runtime.model.SpecInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hkhc.electricspock.Partitioned;
+import hkhc.electricspock.internal.FailFast;
+
+/**
+ * Run a specification in worker JVMs of WorkerPool, and replay its events in this JVM.
+ *
+ * Features are sent to one worker, except @Partitioned features, which are sent to as many
+ * workers as partitions at once. They must be @Unroll, so that every partition reports its own
+ * iterations rather than the same feature. Events of all workers are replayed on the calling thread, so
+ * listeners bound to the thread of the specification see them.
+ */
+
+public class RemoteSpecRunner {
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "electricspock-remote-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Class<?> specClass;
+
+    public RemoteSpecRunner(Class<?> specClass) {
+        this.specClass = specClass;
+    }
+
+    /**
+     * @param spec        the specification after filtering and sorting, features to run and
+     *                    their order are taken from it. Unrolled features are not in the
+     *                    description, so it cannot be used instead.
+     * @param description description of the specification
+     * @param notifier    notifier of test JVM
+     */
+    public void run(SpecInfo spec, final Description description, RunNotifier notifier) {
+
+        List<WorkerRequest> requests = createRequests(spec, notifier);
+        final BlockingQueue<WorkerEvent> events = new LinkedBlockingQueue<>();
+
+        for (final WorkerRequest request : requests) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runRequest(description, request, events);
+                    } finally {
+                        events.add(WorkerEvent.done(description, null));
+                    }
+                }
+            });
+        }
+
+        int pending = requests.size();
+        while (pending > 0) {
+            WorkerEvent event;
+            try {
+                event = events.take();
+            } catch (InterruptedException e) {
+                // workers finish their requests and release themselves
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (event.getType() == WorkerEvent.Type.DONE) {
+                pending--;
+            } else {
+                event.replay(notifier);
+            }
+        }
+
+    }
+
+    /**
+     * @param notifier a @Partitioned feature that is not unrolled fails right away
+     */
+    private List<WorkerRequest> createRequests(SpecInfo spec, RunNotifier notifier) {
+
+        List<WorkerRequest> requests = new ArrayList<>();
+        ArrayList<String> names = new ArrayList<>();
+
+        for (FeatureInfo feature : spec.getAllFeaturesInExecutionOrder()) {
+            if (feature.isExcluded()) continue;
+            // the worker filters by the description of the feature method, which an unrolled
+            // feature has too
+            String name = Description.createTestDescription(specClass, feature.getName()).getDisplayName();
+            Partitioned partitioned = feature.getFeatureMethod().getReflection().getAnnotation(Partitioned.class);
+            if (partitioned != null && partitioned.value() > 1 && !feature.isReportIterations()) {
+                Description test = Description.createTestDescription(specClass, feature.getName());
+                notifier.fireTestStarted(test);
+                notifier.fireTestFailure(new Failure(test, new InvalidSpecException("@Partitioned feature '"
+                        + feature.getName() + "' must be @Unroll, so that partitions report their own iterations")));
+                notifier.fireTestFinished(test);
+            } else if (partitioned != null && partitioned.value() > 1) {
+                List<String> single = new ArrayList<>();
+                single.add(name);
+                for (int i = 0; i < partitioned.value(); i++) {
+                    requests.add(new WorkerRequest(specClass.getName(), single, i, partitioned.value()));
+                }
+            } else {
+                names.add(name);
+            }
+        }
+        if (!names.isEmpty()) {
+            requests.add(0, new WorkerRequest(specClass.getName(), names));
+        }
+
+        return requests;
+    }
+
+    /**
+     * Run a request in a worker, events are put to the queue
+     */
+    private void runRequest(Description description, WorkerRequest request, BlockingQueue<WorkerEvent> events) {
+
+        WorkerPool pool = WorkerPool.getInstance();
+        WorkerProcess worker;
+        try {
+            worker = pool.acquire(specClass.getClassLoader());
+        } catch (IOException e) {
+            events.add(new WorkerEvent(WorkerEvent.Type.FAILURE, description, e));
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            events.add(new WorkerEvent(WorkerEvent.Type.FAILURE, description, e));
+            return;
+        }
+
+        if (FailFast.isTripped()) {
+            // tripped while waiting for the worker
+            pool.release(worker, true);
+            for (String name : request.getTestNames()) {
+                events.add(new WorkerEvent(WorkerEvent.Type.IGNORED,
+                        Description.createSuiteDescription(name), null));
+            }
+            return;
+        }
+
+        boolean healthy = false;
+        try {
+            worker.send(request);
+            // it may be tripped after the workers were cancelled
+            if (FailFast.isTripped()) worker.cancel();
+            boolean failed = false;
+            while (true) {
+                WorkerEvent event = worker.receive();
+                if (event.getType() == WorkerEvent.Type.DONE) {
+                    pool.report(worker, event.getLoad());
+                    break;
+                } else if (event.getType() == WorkerEvent.Type.WORKER_ERROR) {
+                    // it no longer takes requests
+                    failed = true;
+                    events.add(new WorkerEvent(WorkerEvent.Type.FAILURE, description,
+                            new IOException("Worker JVM failed when running " + specClass.getName(),
+                                    event.getException())));
+                } else {
+                    events.add(event);
+                }
+            }
+            // a worker that may have been cancelled is not reused, a late cancellation would
+            // skip its next specification
+            healthy = !failed && !FailFast.isTripped();
+        } catch (IOException e) {
+            // the worker died or the stream is broken, its state is unknown
+            events.add(new WorkerEvent(WorkerEvent.Type.FAILURE, description,
+                    new IOException("Worker JVM failed when running " + specClass.getName(), e)));
+        } finally {
+            pool.release(worker, healthy);
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal.worker;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Copy of an exception thrown in worker JVM. The original exception may not be serializable, nor
+ * its class be loadable in the test JVM, so only its class name, message and stack trace are
+ * kept.
+ */
+
+public class RemoteThrowable extends Throwable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String className;
+
+    private RemoteThrowable(String className, String message, RemoteThrowable cause) {
+        super(message, cause);
+        this.className = className;
+    }
+
+    public static RemoteThrowable of(Throwable throwable) {
+        return of(throwable, new IdentityHashMap<Throwable, RemoteThrowable>());
+    }
+
+    private static RemoteThrowable of(Throwable throwable, Map<Throwable, RemoteThrowable> converted) {
+        if (throwable == null) return null;
+        if (throwable instanceof RemoteThrowable) return (RemoteThrowable) throwable;
+
+        RemoteThrowable remote = converted.get(throwable);
+        if (remote != null) return remote;
+
+        // guard against cyclic causes before converting the cause
+        converted.put(throwable, null);
+        Throwable cause = throwable.getCause();
+        RemoteThrowable remoteCause = converted.containsKey(cause) ? null : of(cause, converted);
+
+        remote = new RemoteThrowable(throwable.getClass().getName(), throwable.getMessage(), remoteCause);
+        remote.setStackTrace(throwable.getStackTrace());
+        converted.put(throwable, remote);
+        return remote;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    @Override
+    public String toString() {
+        String message = getLocalizedMessage();
+        return message == null ? className : className + ": " + message;
+    }
+
+}
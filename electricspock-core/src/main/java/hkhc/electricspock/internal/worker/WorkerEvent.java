@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal.worker;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+
+import java.io.Serializable;
+
+import hkhc.electricspock.internal.LoadSample;
+
+/**
+ * Test event streamed from worker JVM, to be replayed to the RunNotifier of the test JVM.
+ */
+
+public class WorkerEvent implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        STARTED,
+        FINISHED,
+        FAILURE,
+        ASSUMPTION_FAILURE,
+        IGNORED,
+        /* the worker cannot take requests any more, e.g. the request stream is broken */
+        WORKER_ERROR,
+        /* the specification is done */
+        DONE
+    }
+
+    private final Type type;
+    private final Description description;
+    private final RemoteThrowable exception;
+
+    /* load of the worker, sent with DONE */
+    private LoadSample load = null;
+
+    /* captured output of a failing feature, sent with FAILURE, see OutputCapture */
+    private String output = null;
+
+    public WorkerEvent(Type type, Description description, Throwable exception) {
+        this.type = type;
+        // annotations of the description may not be serializable. Description is identified by
+        // its display name, and class and method name are parsed from it anyway.
+        this.description = Description.createSuiteDescription(description.getDisplayName());
+        this.exception = exception == null ? null : RemoteThrowable.of(exception);
+    }
+
+    public static WorkerEvent done(Description description, LoadSample load) {
+        WorkerEvent event = new WorkerEvent(Type.DONE, description, null);
+        event.load = load;
+        return event;
+    }
+
+    public static WorkerEvent failure(Description description, Throwable exception, String output) {
+        WorkerEvent event = new WorkerEvent(Type.FAILURE, description, exception);
+        event.output = output;
+        return event;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Description getDescription() {
+        return description;
+    }
+
+    public RemoteThrowable getException() {
+        return exception;
+    }
+
+    public LoadSample getLoad() {
+        return load;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public void replay(RunNotifier notifier) {
+        switch (type) {
+            case STARTED:
+                notifier.fireTestStarted(description);
+                break;
+            case FINISHED:
+                notifier.fireTestFinished(description);
+                break;
+            case FAILURE:
+                // printed on the thread of the specification while the feature is running, so
+                // the test framework attributes it to the feature
+                if (output != null) {
+                    System.out.print(output);
+                    System.out.flush();
+                }
+                notifier.fireTestFailure(new Failure(description, exception));
+                break;
+            case ASSUMPTION_FAILURE:
+                notifier.fireTestAssumptionFailed(new Failure(description, exception));
+                break;
+            case IGNORED:
+                notifier.fireTestIgnored(description);
+                break;
+            default:
+                break;
+        }
+    }
+
+}
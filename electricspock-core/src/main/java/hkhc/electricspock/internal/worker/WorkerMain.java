@@ -0,0 +1,249 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal.worker;
+
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import hkhc.electricspock.internal.DataPartition;
+import hkhc.electricspock.internal.FailFast;
+import hkhc.electricspock.internal.LoadSample;
+import hkhc.electricspock.internal.OutputCapture;
+
+/**
+ * Entry point of worker JVM. It reads WorkerRequest from stdin, runs the specification in this
+ * JVM and streams WorkerEvent to stdout, until stdin is closed. A cancellation from the test JVM
+ * trips FailFast of this JVM until the running specification is done. Output of the specifications
+ * goes to stderr, so that stdout is only used for events. If requests cannot be read any more,
+ * the worker sends WORKER_ERROR and exits after the running specification.
+ *
+ * Sandboxes created for a specification are kept by Robolectric, so they are warm for the next
+ * specification sent to the same worker.
+ */
+
+public class WorkerMain {
+
+    /* no more requests */
+    private static final WorkerRequest END = new WorkerRequest(null, new ArrayList<String>());
+
+    private final ObjectOutputStream out;
+
+    private WorkerMain(ObjectOutputStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        FileOutputStream protocolOut = new FileOutputStream(FileDescriptor.out);
+        System.setOut(System.err);
+
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(protocolOut));
+        out.flush();
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(System.in));
+
+        BlockingQueue<WorkerRequest> requests = new LinkedBlockingQueue<>();
+        WorkerMain worker = new WorkerMain(out);
+        worker.readRequests(in, requests);
+
+        while (true) {
+            WorkerRequest request = requests.take();
+            if (request == END) break;
+            worker.run(request);
+        }
+
+        // sandboxes may leave non-daemon threads behind
+        System.exit(0);
+
+    }
+
+    /**
+     * Read requests in background, so that a cancellation is taken while a specification is
+     * running
+     */
+    private void readRequests(final ObjectInputStream in, final BlockingQueue<WorkerRequest> requests) {
+        Thread thread = new Thread("electricspock-worker-requests") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        WorkerRequest request = (WorkerRequest) in.readObject();
+                        if (request.isCancel()) {
+                            FailFast.trip();
+                        } else {
+                            requests.add(request);
+                        }
+                    }
+                } catch (EOFException e) {
+                    // the test JVM is done with this worker
+                } catch (Exception e) {
+                    try {
+                        send(new WorkerEvent(WorkerEvent.Type.WORKER_ERROR,
+                                Description.createSuiteDescription("electricspock-worker"), e));
+                    } catch (IOException sendFailure) {
+                        // the test JVM is gone too
+                        e.printStackTrace();
+                    }
+                } finally {
+                    requests.add(END);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run(WorkerRequest request) throws IOException {
+
+        Description specDescription = Description.createSuiteDescription(request.getSpecClassName());
+        try {
+            Class<?> specClass = Class.forName(request.getSpecClassName(), false,
+                    WorkerMain.class.getClassLoader());
+            JUnitCore core = new JUnitCore();
+            core.addListener(new StreamingListener());
+            DataPartition.set(request.getPartitionIndex(), request.getPartitionCount());
+            core.run(Request.aClass(specClass)
+                    .filterWith(new NameFilter(request.getTestNames()))
+                    .sortWith(new NameOrder(request.getTestNames())));
+        } catch (Throwable t) {
+            send(new WorkerEvent(WorkerEvent.Type.FAILURE, specDescription, t));
+        } finally {
+            DataPartition.clear();
+            // a cancellation is about this specification only
+            FailFast.reset();
+        }
+        send(WorkerEvent.done(specDescription, LoadSample.current()));
+
+    }
+
+    private synchronized void send(WorkerEvent event) throws IOException {
+        out.writeObject(event);
+        // descriptions are not shared between events, don't keep them in the stream
+        out.reset();
+        out.flush();
+    }
+
+    private class StreamingListener extends RunListener {
+
+        @Override
+        public void testStarted(Description description) throws Exception {
+            send(new WorkerEvent(WorkerEvent.Type.STARTED, description, null));
+        }
+
+        @Override
+        public void testFinished(Description description) throws Exception {
+            send(new WorkerEvent(WorkerEvent.Type.FINISHED, description, null));
+        }
+
+        @Override
+        public void testFailure(Failure failure) throws Exception {
+            // the feature is still running on this thread, so its output is still at hand
+            OutputCapture capture = OutputCapture.getInstance();
+            String output = capture == null ? null : capture.getFailureOutput(failure.getDescription());
+            send(WorkerEvent.failure(failure.getDescription(), failure.getException(), output));
+        }
+
+        @Override
+        public void testAssumptionFailure(Failure failure) {
+            try {
+                send(new WorkerEvent(WorkerEvent.Type.ASSUMPTION_FAILURE, failure.getDescription(),
+                        failure.getException()));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void testIgnored(Description description) throws Exception {
+            send(new WorkerEvent(WorkerEvent.Type.IGNORED, description, null));
+        }
+    }
+
+    /**
+     * Run the features the test JVM asks for, after it applied its filters
+     */
+    private static class NameFilter extends Filter {
+
+        private final Set<String> testNames;
+
+        NameFilter(Iterable<String> testNames) {
+            this.testNames = new HashSet<>();
+            for (String name : testNames) {
+                this.testNames.add(name);
+            }
+        }
+
+        @Override
+        public boolean shouldRun(Description description) {
+            if (description.isTest()) {
+                return testNames.contains(description.getDisplayName());
+            }
+            for (Description child : description.getChildren()) {
+                if (shouldRun(child)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String describe() {
+            return "features requested by test JVM";
+        }
+    }
+
+    /**
+     * Run the features in the order of the test JVM, after it applied its sorters
+     */
+    private static class NameOrder implements Comparator<Description> {
+
+        private final List<String> testNames;
+
+        NameOrder(List<String> testNames) {
+            this.testNames = testNames;
+        }
+
+        @Override
+        public int compare(Description d1, Description d2) {
+            return Integer.compare(indexOf(d1), indexOf(d2));
+        }
+
+        private int indexOf(Description description) {
+            int index = testNames.indexOf(description.getDisplayName());
+            return index < 0 ? Integer.MAX_VALUE : index;
+        }
+    }
+
+}
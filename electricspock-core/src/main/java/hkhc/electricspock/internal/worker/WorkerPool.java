@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal.worker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import hkhc.electricspock.internal.AdaptiveConcurrency;
+import hkhc.electricspock.internal.FailFast;
+import hkhc.electricspock.internal.LoadSample;
+import hkhc.electricspock.internal.Settings;
+
+/**
+ * Pool of worker JVMs, used when electricspock.execution is "process". Workers are started on
+ * demand, up to electricspock.workers, and kept until the test JVM exits. How many of them run
+ * at once follows their heap and GC load, see AdaptiveConcurrency.
+ */
+
+public class WorkerPool {
+
+    private static WorkerPool instance = null;
+
+    private final AdaptiveConcurrency concurrency;
+    private final LinkedList<WorkerProcess> idleWorkers = new LinkedList<>();
+    private final Set<WorkerProcess> allWorkers = new HashSet<>();
+
+    private WorkerPool(int size) {
+        this.concurrency = new AdaptiveConcurrency("worker", size);
+
+        Runtime.getRuntime().addShutdownHook(new Thread("electricspock-worker-shutdown") {
+            @Override
+            public void run() {
+                destroyAll();
+            }
+        });
+
+        FailFast.onTrip(new Runnable() {
+            @Override
+            public void run() {
+                cancelAll();
+            }
+        });
+    }
+
+    /**
+     * @return true if specifications in sandbox shall be run in worker JVMs
+     */
+    public static boolean isEnabled() {
+        return "process".equals(Settings.getString(Settings.EXECUTION, "inprocess"))
+                && !Settings.getBoolean(Settings.WORKER, false);
+    }
+
+    public static synchronized WorkerPool getInstance() {
+        if (instance == null) {
+            instance = new WorkerPool(Math.max(1, Settings.getInt(Settings.WORKERS,
+                    Runtime.getRuntime().availableProcessors())));
+        }
+        return instance;
+    }
+
+    /**
+     * @return the most workers that may run at once
+     */
+    public int getSize() {
+        return concurrency.getMax();
+    }
+
+    /**
+     * Get an idle worker, start one if there is none. It blocks when all workers are busy.
+     *
+     * @param classLoader class loader of the specification, to find out the classpath of worker
+     * @return the worker, to be released after use
+     */
+    WorkerProcess acquire(ClassLoader classLoader) throws IOException, InterruptedException {
+        concurrency.acquire();
+        try {
+            synchronized (this) {
+                while (!idleWorkers.isEmpty()) {
+                    WorkerProcess worker = idleWorkers.removeFirst();
+                    if (worker.isAlive()) return worker;
+                    allWorkers.remove(worker);
+                }
+            }
+            WorkerProcess worker = WorkerProcess.start(classLoader);
+            synchronized (this) {
+                allWorkers.add(worker);
+            }
+            return worker;
+        } catch (IOException | RuntimeException e) {
+            concurrency.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param worker  worker obtained from acquire
+     * @param healthy false if the worker is in unknown state, so it is destroyed
+     */
+    void release(WorkerProcess worker, boolean healthy) {
+        synchronized (this) {
+            if (healthy && worker.isAlive()) {
+                idleWorkers.addFirst(worker);
+            } else {
+                worker.destroy();
+                allWorkers.remove(worker);
+                concurrency.forget(worker);
+            }
+        }
+        concurrency.release();
+    }
+
+    /**
+     * @param worker worker that sent the sample
+     * @param sample heap and GC figures of the worker
+     */
+    void report(WorkerProcess worker, LoadSample sample) {
+        concurrency.report(worker, sample);
+    }
+
+    /**
+     * Busy workers skip the rest of their specifications, idle workers are not needed any more
+     */
+    private void cancelAll() {
+        List<WorkerProcess> busyWorkers;
+        List<WorkerProcess> idle;
+        synchronized (this) {
+            busyWorkers = new ArrayList<>(allWorkers);
+            busyWorkers.removeAll(idleWorkers);
+            idle = new ArrayList<>(idleWorkers);
+            idleWorkers.clear();
+            allWorkers.removeAll(idle);
+        }
+        for (WorkerProcess worker : busyWorkers) {
+            worker.cancel();
+        }
+        for (WorkerProcess worker : idle) {
+            worker.destroy();
+        }
+    }
+
+    private void destroyAll() {
+        List<WorkerProcess> workers;
+        synchronized (this) {
+            workers = new ArrayList<>(allWorkers);
+            allWorkers.clear();
+            idleWorkers.clear();
+        }
+        for (WorkerProcess worker : workers) {
+            worker.destroy();
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import hkhc.electricspock.internal.Settings;
+
+/**
+ * A worker JVM running WorkerMain, and the pipes to talk to it.
+ */
+
+public class WorkerProcess {
+
+    /* system properties passed to workers, exact names or prefixes ending with a dot */
+    private static final List<String> WORKER_PROPERTIES = Arrays.asList(
+            "electricspock.",
+            "robolectric.",
+            "file.encoding",
+            "user.language",
+            "user.country",
+            "user.region",
+            "user.variant",
+            "user.timezone",
+            "java.awt.headless",
+            "java.io.tmpdir"
+    );
+
+    /* heap, GC and assertion options, and agents like JaCoCo that apply to every JVM */
+    private static final List<String> WORKER_OPTIONS = Arrays.asList(
+            "-Xmx", "-Xms", "-Xmn", "-Xss",
+            "-XX:",
+            "-ea", "-enableassertions", "-esa", "-enablesystemassertions",
+            "-da", "-disableassertions", "-dsa", "-disablesystemassertions",
+            "-javaagent:",
+            "--add-opens", "--add-exports", "--illegal-access"
+    );
+
+    private final Process process;
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+
+    private WorkerProcess(Process process) throws IOException {
+        this.process = process;
+        pumpStderr(process.getErrorStream());
+        out = new ObjectOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        out.flush();
+        in = new ObjectInputStream(new BufferedInputStream(process.getInputStream()));
+    }
+
+    static WorkerProcess start(ClassLoader classLoader) throws IOException {
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+        command.addAll(workerArguments(ManagementFactory.getRuntimeMXBean().getInputArguments()));
+        String jvmArgs = Settings.getString(Settings.WORKER_JVM_ARGS, null);
+        if (jvmArgs != null) {
+            for (String arg : jvmArgs.split("\\s+")) {
+                command.add(arg);
+            }
+        }
+        command.add("-D" + Settings.WORKER + "=true");
+        command.add("-cp");
+        command.add(getClassPath(classLoader));
+        command.add(WorkerMain.class.getName());
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        return new WorkerProcess(builder.start());
+
+    }
+
+    /**
+     * Arguments of the test JVM that apply to workers too. Anything else is left out, e.g. the
+     * security manager and properties of a Gradle test worker, which read stdin of the JVM, a
+     * debugger agent, which cannot listen at the same port twice, or properties that make a worker
+     * report metrics as if it was a fork.
+     */
+    static List<String> workerArguments(List<String> inputArguments) {
+        List<String> arguments = new ArrayList<>();
+        for (String arg : inputArguments) {
+            if (isWorkerArgument(arg)) arguments.add(arg);
+        }
+        return arguments;
+    }
+
+    private static boolean isWorkerArgument(String arg) {
+        if (arg.startsWith("-D")) {
+            String name = arg.substring(2).split("=", 2)[0];
+            if (name.equals(Settings.EXECUTION) || name.equals(Settings.METRICS_DIR)
+                    || name.equals(Settings.REPORT_DIR)) {
+                return false;
+            }
+            for (String prefix : WORKER_PROPERTIES) {
+                if (prefix.endsWith(".") ? name.startsWith(prefix) : name.equals(prefix)) return true;
+            }
+            return false;
+        }
+        // workers must not write the class data sharing archive the test JVM is recording
+        if (arg.startsWith("-XX:ArchiveClassesAtExit")) return false;
+        for (String prefix : WORKER_OPTIONS) {
+            if (arg.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The test JVM may not be started with the test classpath (e.g. Gradle test worker), so
+     * collect it from the class loaders as well.
+     */
+    private static String getClassPath(ClassLoader classLoader) {
+        Set<String> entries = new LinkedHashSet<>();
+        for (ClassLoader cl = classLoader; cl != null; cl = cl.getParent()) {
+            if (cl instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) cl).getURLs()) {
+                    if (!"file".equals(url.getProtocol())) continue;
+                    try {
+                        entries.add(new File(url.toURI()).getPath());
+                    } catch (URISyntaxException e) {
+                        entries.add(url.getPath());
+                    }
+                }
+            }
+        }
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!entry.isEmpty()) entries.add(entry);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String entry : entries) {
+            if (sb.length() > 0) sb.append(File.pathSeparator);
+            sb.append(entry);
+        }
+        return sb.toString();
+    }
+
+    /* forward output of specifications to stderr of the test JVM, where the test framework
+    captures it */
+    private static void pumpStderr(final InputStream stderr) {
+        Thread thread = new Thread("electricspock-worker-stderr") {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[8192];
+                try {
+                    int n;
+                    while ((n = stderr.read(buffer)) >= 0) {
+                        System.err.write(buffer, 0, n);
+                        System.err.flush();
+                    }
+                } catch (IOException e) {
+                    // the worker is gone
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /* requests are sent by the runner of the specification, and cancellation by any thread */
+    synchronized void send(WorkerRequest request) throws IOException {
+        out.writeObject(request);
+        out.reset();
+        out.flush();
+    }
+
+    WorkerEvent receive() throws IOException {
+        try {
+            return (WorkerEvent) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Ask the worker to skip the features of its specification that are not yet started. It
+     * still finishes the specification as usual.
+     */
+    void cancel() {
+        try {
+            send(WorkerRequest.cancel());
+        } catch (IOException e) {
+            // the worker is gone anyway
+        }
+    }
+
+    boolean isAlive() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    void destroy() {
+        process.destroy();
+    }
+
+}
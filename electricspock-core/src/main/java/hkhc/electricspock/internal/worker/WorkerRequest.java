@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal.worker;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request to run a specification in worker JVM
+ */
+
+public class WorkerRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String specClassName;
+
+    /* display names of the features to run */
+    private final ArrayList<String> testNames;
+
+    /* skip what is not yet started, see FailFast */
+    private final boolean cancel;
+
+    /* share of DataTable rows to run, see DataPartition */
+    private final int partitionIndex;
+    private final int partitionCount;
+
+    public WorkerRequest(String specClassName, List<String> testNames) {
+        this(specClassName, testNames, 0, 1, false);
+    }
+
+    public WorkerRequest(String specClassName, List<String> testNames, int partitionIndex, int partitionCount) {
+        this(specClassName, testNames, partitionIndex, partitionCount, false);
+    }
+
+    private WorkerRequest(String specClassName, List<String> testNames, int partitionIndex,
+                          int partitionCount, boolean cancel) {
+        this.specClassName = specClassName;
+        this.testNames = new ArrayList<>(testNames);
+        this.partitionIndex = partitionIndex;
+        this.partitionCount = partitionCount;
+        this.cancel = cancel;
+    }
+
+    public static WorkerRequest cancel() {
+        return new WorkerRequest(null, new ArrayList<String>(), 0, 1, true);
+    }
+
+    public int getPartitionIndex() {
+        return partitionIndex;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public boolean isCancel() {
+        return cancel;
+    }
+
+    public String getSpecClassName() {
+        return specClassName;
+    }
+
+    public List<String> getTestNames() {
+        return testNames;
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock
+
+import hkhc.electricspock.internal.DataPartition
+import spock.lang.Specification
+import spock.lang.Title
+
+@Title("data provider streamed from file")
+class DataTableSpec extends Specification {
+
+    File file
+
+    def setup() {
+        file = File.createTempFile("table", ".csv")
+        file.deleteOnExit()
+        file.text = 'name,price\n"a, b",1\r\n\nc,"say ""hi"""\nd,3\ne,4\n'
+    }
+
+    def cleanup() {
+        DataPartition.clear()
+    }
+
+    def "rows of csv are read with header and quotes"() {
+        when:
+        def rows = DataTable.csv(file).collect()
+
+        then:
+        rows*.index == [0, 1, 2, 3]
+        rows[0] == ["a, b", "1"]
+        rows[1].get("price") == 'say "hi"'
+        DataTable.csv(file).size() == 4
+    }
+
+    def "rows can be assigned to data variables"() {
+        expect:
+        price.toInteger() > 0
+
+        where:
+        [name, price] << DataTable.csv(new File(getClass().getResource("/table.csv").toURI()))
+    }
+
+    def "partition yields its share of rows"() {
+        given:
+        def table = DataTable.csv(file)
+
+        when:
+        DataPartition.set(1, 3)
+
+        then:
+        table.collect()*.index == [1]
+        table.size() == 1
+
+        when:
+        DataPartition.set(0, 3)
+
+        then:
+        table.collect()*.index == [0, 3]
+        table.size() == 2
+    }
+
+    def "tables count their iterations, to tell partitioned features with other providers"() {
+        given:
+        def table = DataTable.csv(file)
+        DataPartition.takeTablesIterated()
+
+        when:
+        table.iterator()
+        table.iterator()
+
+        then:
+        DataPartition.takeTablesIterated() == 2
+        DataPartition.takeTablesIterated() == 0
+    }
+
+    def "json lines are parsed one per row"() {
+        given:
+        def json = File.createTempFile("table", ".jsonl")
+        json.deleteOnExit()
+        json.text = '{"name":"a","price":1}\n{"name":"b","price":2}\n'
+
+        expect:
+        DataTable.jsonLines(json).collect()*.name == ["a", "b"]
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock
+
+import org.junit.runner.notification.Failure
+import org.junit.runner.notification.RunListener
+import org.junit.runner.notification.RunNotifier
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Title
+
+@Title("sandbox created in background")
+class ElectricSputnikSpec extends Specification {
+
+    /* Defined by a class loader the sandbox does not know, so it cannot be loaded in sandbox */
+    @Shared
+    Class unloadableSpec = new GroovyClassLoader(getClass().classLoader).parseClass("""
+        @hkhc.electricspock.UseSandbox
+        class UnloadableSpec extends hkhc.electricspock.ElectricSpecification {
+            def "feature"() { expect: true }
+        }
+    """)
+
+    def "failure of sandbox creation is described as initializationError"() {
+        given:
+        def runner = new ElectricSputnik(unloadableSpec)
+
+        when:
+        def description = runner.getDescription()
+
+        then:
+        notThrown(Throwable)
+        description.children*.methodName == ["initializationError"]
+        description.children[0].testClass == unloadableSpec
+    }
+
+    def "failure of sandbox creation is reported by run"() {
+        given:
+        def runner = new ElectricSputnik(unloadableSpec)
+        def failures = []
+        def notifier = new RunNotifier()
+        notifier.addListener(new RunListener() {
+            @Override
+            void testFailure(Failure failure) { failures << failure }
+        })
+
+        when:
+        runner.run(notifier)
+
+        then:
+        notThrown(Throwable)
+        failures.size() == 1
+        failures[0].description == runner.description.children[0]
+        rootCause(failures[0].exception) instanceof ClassNotFoundException
+    }
+
+    static Throwable rootCause(Throwable e) {
+        while (e.cause != null && e.cause != e) e = e.cause
+        e
+    }
+
+}
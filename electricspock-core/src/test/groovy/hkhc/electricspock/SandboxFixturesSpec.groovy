@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock
+
+import hkhc.electricspock.internal.FixtureShutdown
+import spock.lang.Specification
+import spock.lang.Title
+
+@Title("fixtures shared in sandbox")
+class SandboxFixturesSpec extends Specification {
+
+    static class Catalog implements AutoCloseable {
+        String name
+        boolean closed = false
+
+        void close() { closed = true }
+    }
+
+    def cleanup() {
+        SandboxFixtures.invalidate(Catalog)
+    }
+
+    def "fixture is created once per type and parameters"() {
+        given:
+        int created = 0
+
+        when:
+        def a1 = SandboxFixtures.get(Catalog, ["a"]) { created++; new Catalog(name: "a") }
+        def a2 = SandboxFixtures.get(Catalog, ["a"]) { created++; new Catalog(name: "a") }
+        def b = SandboxFixtures.get(Catalog, ["b"]) { created++; new Catalog(name: "b") }
+
+        then:
+        a1.is(a2)
+        !a1.is(b)
+        created == 2
+    }
+
+    def "invalidated fixture is torn down and created again"() {
+        given:
+        def a1 = SandboxFixtures.get(Catalog, ["a"]) { new Catalog(name: "a") }
+        def b = SandboxFixtures.get(Catalog, ["b"]) { new Catalog(name: "b") }
+
+        when:
+        SandboxFixtures.invalidate(Catalog, ["a"])
+        def a2 = SandboxFixtures.get(Catalog, ["a"]) { new Catalog(name: "a") }
+
+        then:
+        a1.closed
+        !b.closed
+        !a1.is(a2)
+    }
+
+    def "custom teardown"() {
+        given:
+        def tornDown = []
+        SandboxFixtures.get(Catalog, ["a"], { new Catalog(name: "a") }, { tornDown << it.name })
+
+        when:
+        SandboxFixtures.invalidate(Catalog)
+
+        then:
+        tornDown == ["a"]
+    }
+
+    def "fixtures still alive are torn down when the JVM exits"() {
+        given:
+        def catalog = SandboxFixtures.get(Catalog, ["a"]) { new Catalog(name: "a") }
+
+        when: "the shutdown hook runs"
+        FixtureShutdown.runAll()
+
+        then:
+        catalog.closed
+        !SandboxFixtures.get(Catalog, ["a"]) { new Catalog(name: "a") }.is(catalog)
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal
+
+import spock.lang.Specification
+import spock.lang.Title
+
+import java.lang.management.MemoryUsage
+
+@Title("concurrency adapted to load")
+class AdaptiveConcurrencySpec extends Specification {
+
+    static final long MB = 1024 * 1024
+
+    /* later than the sample taken on construction */
+    long now = System.currentTimeMillis() + 1000
+
+    LoadSample sample(long usedMb, long gcMillis = 0, long time = now) {
+        new LoadSample(time, usedMb * MB, 100 * MB, gcMillis)
+    }
+
+    def cleanup() {
+        System.clearProperty(Settings.ADAPTIVE)
+        System.clearProperty(Settings.MIN_WORKERS)
+    }
+
+    def "limit starts at the maximum"() {
+        expect:
+        new AdaptiveConcurrency("test", 8).limit == 8
+    }
+
+    def "limit is fixed at the maximum when adaptation is off"() {
+        given:
+        System.setProperty(Settings.ADAPTIVE, "false")
+        def concurrency = new AdaptiveConcurrency("test", 8)
+
+        when:
+        concurrency.adjust(sample(95), 0)
+
+        then:
+        concurrency.limit == 8
+    }
+
+    def "limit is halved when the heap is almost full"() {
+        given:
+        def concurrency = new AdaptiveConcurrency("test", 8)
+
+        when:
+        concurrency.adjust(sample(95), 0)
+
+        then:
+        concurrency.limit == 4
+    }
+
+    def "limit goes down by one when the heap runs low"() {
+        given:
+        def concurrency = new AdaptiveConcurrency("test", 8)
+
+        when:
+        concurrency.adjust(sample(85), 0)
+
+        then:
+        concurrency.limit == 7
+    }
+
+    def "limit goes down by one when much time is spent in GC"() {
+        given:
+        def concurrency = new AdaptiveConcurrency("test", 8)
+        concurrency.adjust(sample(10, 0, now), 0)
+
+        when:
+        concurrency.adjust(sample(10, 500, now + 1000), 0)
+
+        then:
+        concurrency.limit == 7
+    }
+
+    def "limit does not go below the minimum"() {
+        given:
+        System.setProperty(Settings.MIN_WORKERS, "2")
+        def concurrency = new AdaptiveConcurrency("test", 8)
+
+        when:
+        3.times { concurrency.adjust(sample(95), 0) }
+
+        then:
+        concurrency.limit == 2
+    }
+
+    def "limit does not grow while no task is waiting"() {
+        given:
+        def concurrency = new AdaptiveConcurrency("test", 8)
+        concurrency.adjust(sample(85, 0, now), 0)
+
+        when:
+        concurrency.adjust(sample(10, 0, now + 1000), 0.1)
+
+        then:
+        concurrency.limit == 7
+    }
+
+    def "heap of a worker counts until it is forgotten"() {
+        given:
+        def concurrency = new AdaptiveConcurrency("test", 8)
+        def worker = new Object()
+        concurrency.report(worker, sample(85))
+
+        when:
+        concurrency.adjust(sample(10), 0)
+
+        then:
+        concurrency.limit == 7
+
+        when:
+        concurrency.forget(worker)
+        concurrency.adjust(sample(10), 0)
+
+        then:
+        concurrency.limit == 7
+    }
+
+    def "current usage is taken for pools not collected yet"() {
+        expect:
+        LoadSample.getUsedAfterGc(collectionUsage, new MemoryUsage(0, 30 * MB, 50 * MB, 100 * MB)) == expected
+
+        where:
+        collectionUsage                                     | expected
+        null                                                | 30 * MB
+        new MemoryUsage(10 * MB, 0, 0, 100 * MB)            | 30 * MB
+        new MemoryUsage(10 * MB, 5 * MB, 50 * MB, 100 * MB) | 5 * MB
+    }
+
+}
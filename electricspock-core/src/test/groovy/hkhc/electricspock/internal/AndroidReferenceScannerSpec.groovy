@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal
+
+import hkhc.electricspock.sample.BasicSpec
+import hkhc.electricspock.sample.scanner.ClosureSubject
+import hkhc.electricspock.sample.scanner.CollaboratorSubject
+import hkhc.electricspock.sample.scanner.IndirectSubject
+import hkhc.electricspock.sample.scanner.InheritingSubject
+import hkhc.electricspock.sample.scanner.PlainSubject
+import spock.lang.Specification
+import spock.lang.Title
+import spock.lang.Unroll
+
+@Title("find Android references of specification")
+class AndroidReferenceScannerSpec extends Specification {
+
+    def scanner = new AndroidReferenceScanner(getClass().classLoader)
+
+    def "class without Android reference"() {
+        expect:
+        scanner.findAndroidReference(PlainSubject) == null
+    }
+
+    def "Android reference of collaborator beyond direct ones is not followed"() {
+        expect:
+        scanner.findAndroidReference(IndirectSubject) == null
+    }
+
+    @Unroll
+    def "#subject.simpleName refers to Android"() {
+        expect:
+        scanner.findAndroidReference(subject) == reference
+
+        where:
+        subject             || reference
+        CollaboratorSubject || "hkhc.electricspock.sample.scanner.RobolectricCollaborator refers to org.robolectric.util.Scheduler"
+        ClosureSubject      || "hkhc.electricspock.sample.scanner.ClosureSubject\$_run_closure1 refers to org.robolectric.util.Scheduler"
+        InheritingSubject   || "hkhc.electricspock.sample.scanner.RobolectricCollaborator refers to org.robolectric.util.Scheduler"
+    }
+
+    def "Robolectric @Config counts as Android reference"() {
+        expect:
+        scanner.findAndroidReference(BasicSpec) == "hkhc.electricspock.sample.BasicSpec refers to org.robolectric.annotation.Config"
+    }
+
+}
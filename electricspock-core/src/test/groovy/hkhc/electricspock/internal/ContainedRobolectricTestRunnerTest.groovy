@@ -96,6 +96,54 @@ class ContainedRobolectricTestRunnerTest {
 
     }
 
+    @Test
+    void "mock generators shall be shared across sandboxes"() {
+
+        // when
+        InstrumentationConfiguration config = runner.createClassLoaderConfig(runner.placeHolderMethod)
+
+        // then
+        assertThat config.shouldAcquire("net.sf.cglib.proxy.Enhancer") isFalse()
+        assertThat config.shouldAcquire("net.bytebuddy.ByteBuddy") isFalse()
+        assertThat config.shouldAcquire("org.objenesis.ObjenesisStd") isFalse()
+
+    }
+
+    @Test
+    void "Groovy and Spock runtime shall be shared across sandboxes"() {
+
+        // when
+        InstrumentationConfiguration config = runner.createClassLoaderConfig(runner.placeHolderMethod)
+
+        // then
+        assertThat config.shouldAcquire("groovy.lang.MetaClassImpl") isFalse()
+        assertThat config.shouldAcquire("org.codehaus.groovy.runtime.InvokerHelper") isFalse()
+        assertThat config.shouldAcquire("org.spockframework.runtime.Sputnik") isFalse()
+        assertThat config.shouldAcquire("spock.lang.Specification") isFalse()
+        assertThat config.shouldAcquire(ElectricSpecification.name) isTrue()
+
+    }
+
+    @Test
+    void "packages given by user shall be shared across sandboxes"() {
+
+        // given
+        System.setProperty("electricspock.sharedPackages", "com.example.shared, org.example.")
+
+        try {
+            // when
+            InstrumentationConfiguration config = runner.createClassLoaderConfig(runner.placeHolderMethod)
+
+            // then
+            assertThat config.shouldAcquire("com.example.shared.Foo") isFalse()
+            assertThat config.shouldAcquire("org.example.Bar") isFalse()
+            assertThat config.shouldAcquire("com.example.sharedother.Foo") isTrue()
+        } finally {
+            System.clearProperty("electricspock.sharedPackages")
+        }
+
+    }
+
     @Test
     void "it shall recognize @Config annotation at class"() {
 
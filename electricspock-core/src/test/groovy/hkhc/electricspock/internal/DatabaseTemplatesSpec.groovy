@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal
+
+import hkhc.electricspock.DatabaseTemplate
+import spock.lang.Specification
+import spock.lang.Title
+
+import java.nio.file.Files
+
+@Title("database templates")
+class DatabaseTemplatesSpec extends Specification {
+
+    /* templates are kept per builder class, so every feature has its own builder */
+
+    static class CountingBuilder implements DatabaseTemplate.Builder {
+        static File database
+        static int builds = 0
+
+        File getDatabaseFile() { database }
+
+        void build() { database.text = "built ${++builds}" }
+    }
+
+    static class CompanionBuilder implements DatabaseTemplate.Builder {
+        static File database
+
+        File getDatabaseFile() { database }
+
+        void build() { database.text = "built" }
+    }
+
+    static class OtherBuilder implements DatabaseTemplate.Builder {
+        static File database
+
+        File getDatabaseFile() { database }
+
+        void build() { database.text = "other" }
+    }
+
+    static class MissingDirBuilder implements DatabaseTemplate.Builder {
+        static File database
+
+        File getDatabaseFile() { database }
+
+        void build() {
+            database.parentFile.mkdirs()
+            database.text = "built"
+        }
+    }
+
+    static class LazyBuilder implements DatabaseTemplate.Builder {
+        File getDatabaseFile() { new File(DatabaseTemplatesSpec.dir, "never.db") }
+
+        void build() {}
+    }
+
+    static File dir = Files.createTempDirectory("electricspock-db-spec").toFile()
+
+    def "database is built once and copied from template afterward"() {
+        given:
+        CountingBuilder.database = new File(dir, "counting.db")
+
+        when:
+        DatabaseTemplates.restore(CountingBuilder)
+        CountingBuilder.database.text = "changed by feature"
+        DatabaseTemplates.restore(CountingBuilder)
+
+        then:
+        CountingBuilder.builds == 1
+        CountingBuilder.database.text == "built 1"
+    }
+
+    def "journal and WAL files of the previous feature are deleted"() {
+        given:
+        CompanionBuilder.database = new File(dir, "companion.db")
+        DatabaseTemplates.restore(CompanionBuilder)
+        def journal = new File(CompanionBuilder.database.path + "-journal")
+        def wal = new File(CompanionBuilder.database.path + "-wal")
+        journal.text = "stale"
+        wal.text = "stale"
+
+        when:
+        DatabaseTemplates.restore(CompanionBuilder)
+
+        then:
+        !journal.exists()
+        !wal.exists()
+        CompanionBuilder.database.text == "built"
+    }
+
+    def "every builder has its own template"() {
+        given:
+        CompanionBuilder.database = new File(dir, "companion.db")
+        OtherBuilder.database = new File(dir, "other.db")
+
+        when:
+        DatabaseTemplates.restore(CompanionBuilder)
+        DatabaseTemplates.restore(OtherBuilder)
+        DatabaseTemplates.restore(CompanionBuilder)
+        DatabaseTemplates.restore(OtherBuilder)
+
+        then:
+        CompanionBuilder.database.text == "built"
+        OtherBuilder.database.text == "other"
+    }
+
+    def "directory of database is created again when it is gone"() {
+        given:
+        MissingDirBuilder.database = new File(dir, "gone/app.db")
+        DatabaseTemplates.restore(MissingDirBuilder)
+        MissingDirBuilder.database.delete()
+        MissingDirBuilder.database.parentFile.delete()
+
+        when:
+        DatabaseTemplates.restore(MissingDirBuilder)
+
+        then:
+        MissingDirBuilder.database.text == "built"
+    }
+
+    def "builder that does not create the database is rejected"() {
+        when:
+        DatabaseTemplates.restore(LazyBuilder)
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.contains(LazyBuilder.name)
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal
+
+import hkhc.electricspock.ElectricSputnik
+import org.junit.runner.Description
+import org.junit.runner.notification.Failure
+import org.junit.runner.notification.RunListener
+import org.junit.runner.notification.RunNotifier
+import spock.lang.Specification
+import spock.lang.Title
+
+@Title("fail fast")
+class FailFastSpec extends Specification {
+
+    /* FailFast is global to the JVM, don't let it skip the other specifications */
+    def cleanup() {
+        FailFast.reset()
+        System.clearProperty(Settings.FAIL_FAST)
+    }
+
+    def "it trips after the given number of failures"() {
+        given:
+        System.setProperty(Settings.FAIL_FAST, "2")
+
+        when:
+        FailFast.recordFailure()
+
+        then:
+        !FailFast.isTripped()
+
+        when:
+        FailFast.recordFailure()
+
+        then:
+        FailFast.isTripped()
+    }
+
+    def "reset clears the trip and the failures"() {
+        given:
+        System.setProperty(Settings.FAIL_FAST, "2")
+        FailFast.recordFailure()
+        FailFast.trip()
+
+        when:
+        FailFast.reset()
+        FailFast.recordFailure()
+
+        then:
+        !FailFast.isTripped()
+    }
+
+    def "listener counts failures of its own thread only"() {
+        given:
+        System.setProperty(Settings.FAIL_FAST, "1")
+        def listener = FailFast.newListener()
+        def failure = new Failure(Description.createTestDescription("a.Spec", "feature"),
+                new AssertionError())
+
+        when:
+        Thread.start { listener.testFailure(failure) }.join()
+
+        then:
+        !FailFast.isTripped()
+
+        when:
+        listener.testFailure(failure)
+
+        then:
+        FailFast.isTripped()
+    }
+
+    def "remaining features of a specification run without sandbox are skipped"() {
+        given:
+        System.setProperty(Settings.FAIL_FAST, "1")
+        def specClass = new GroovyClassLoader(getClass().classLoader).parseClass("""
+            @hkhc.electricspock.UseSandbox(false)
+            class PlainFailingSpec extends hkhc.electricspock.ElectricSpecification {
+                def "fails"() { expect: false }
+                def "is skipped"() { expect: true }
+            }
+        """)
+        def failed = []
+        def skipped = []
+        def notifier = new RunNotifier()
+        notifier.addListener(new RunListener() {
+            void testFailure(Failure failure) { failed << failure.description.methodName }
+
+            void testAssumptionFailure(Failure failure) { skipped << failure.description.methodName }
+
+            void testIgnored(Description description) { skipped << description.methodName }
+        })
+
+        when:
+        new ElectricSputnik(specClass).run(notifier)
+
+        then:
+        failed == ["fails"]
+        skipped == ["is skipped"]
+    }
+
+}
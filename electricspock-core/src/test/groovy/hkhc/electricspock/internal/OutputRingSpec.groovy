@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal
+
+import spock.lang.Specification
+import spock.lang.Title
+
+@Title("ring of captured output")
+class OutputRingSpec extends Specification {
+
+    static byte[] bytes(String s) { s.getBytes("UTF-8") }
+
+    static String append(OutputRing ring, long[] last, String s) {
+        last[0] = ring.append(last[0], bytes(s), 0, s.length())
+        s
+    }
+
+    def "chunks of a feature are read back in order, without chunks of other features"() {
+        given:
+        def ring = new OutputRing(1024)
+        long[] a = [OutputRing.NONE]
+        long[] b = [OutputRing.NONE]
+
+        when:
+        append(ring, a, "one ")
+        append(ring, b, "other")
+        append(ring, a, "two")
+
+        then:
+        new String(ring.read(a[0]), "UTF-8") == "one two"
+        new String(ring.read(b[0]), "UTF-8") == "other"
+        !ring.isTruncated(a[0])
+    }
+
+    def "only the tail of output is kept when the ring is full"() {
+        given:
+        def ring = new OutputRing(64)
+        long[] a = [OutputRing.NONE]
+
+        when:
+        (0..9).each { append(ring, a, "chunk$it;") }
+        def output = new String(ring.read(a[0]), "UTF-8")
+
+        then:
+        ring.isTruncated(a[0])
+        output.endsWith("chunk9;")
+        !output.contains("chunk0;")
+        "chunk0;chunk1;chunk2;chunk3;chunk4;chunk5;chunk6;chunk7;chunk8;chunk9;".endsWith(output)
+    }
+
+    def "feature is overwritten only when its last chunk is"() {
+        given:
+        def ring = new OutputRing(64)
+        long[] a = [OutputRing.NONE]
+        long[] b = [OutputRing.NONE]
+
+        when:
+        append(ring, a, "first chunk;")
+        append(ring, b, "x" * 30)
+        append(ring, a, "last;")
+        append(ring, b, "y" * 10)
+
+        then:
+        ring.isTruncated(a[0])
+        !ring.isOverwritten(a[0])
+        new String(ring.read(a[0]), "UTF-8") == "last;"
+
+        when:
+        append(ring, b, "z" * 40)
+
+        then:
+        ring.isOverwritten(a[0])
+    }
+
+    def "chunk larger than the ring keeps its tail"() {
+        given:
+        def ring = new OutputRing(32)
+        long[] a = [OutputRing.NONE]
+
+        when:
+        append(ring, a, "x" * 100 + "end")
+
+        then:
+        new String(ring.read(a[0]), "UTF-8").endsWith("end")
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal
+
+import spock.lang.Specification
+import spock.lang.Title
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+@Title("stall watchdog")
+class StallWatchdogSpec extends Specification {
+
+    def "feature finished within its budget is not interrupted"() {
+        when:
+        def watch = StallWatchdog.watch(Thread.currentThread(), "quick", 5000, 0, 5000)
+        Thread.sleep(50)
+        watch.stop()
+
+        then:
+        !watch.isFired()
+        !Thread.currentThread().isInterrupted()
+    }
+
+    def "feature over its budget is interrupted"() {
+        given:
+        def interrupted = false
+
+        when:
+        def watch = StallWatchdog.watch(Thread.currentThread(), "slow", 200, 0, 5000)
+        try {
+            Thread.sleep(10000)
+        } catch (InterruptedException e) {
+            interrupted = true
+        } finally {
+            watch.stop()
+        }
+
+        then:
+        interrupted
+        watch.isFired()
+        watch.reason.contains("exceeded its budget")
+    }
+
+    def "feature making no progress is interrupted"() {
+        given:
+        def latch = new CountDownLatch(1)
+        def interrupted = false
+
+        when:
+        def watch = StallWatchdog.watch(Thread.currentThread(), "stuck", 0, 200, 5000)
+        try {
+            latch.await(10, TimeUnit.SECONDS)
+        } catch (InterruptedException e) {
+            interrupted = true
+        } finally {
+            watch.stop()
+        }
+
+        then:
+        interrupted
+        watch.isFired()
+        watch.reason.contains("made no progress")
+    }
+
+    def "interrupt not consumed by the feature is cleared when the watch stops"() {
+        when:
+        def watch = StallWatchdog.watch(Thread.currentThread(), "busy", 200, 0, 5000)
+        long end = System.currentTimeMillis() + 2000
+        while (!Thread.currentThread().isInterrupted() && System.currentTimeMillis() < end) {
+            // busy, without checking for interrupts
+        }
+        watch.stop()
+
+        then:
+        watch.isFired()
+        !Thread.currentThread().isInterrupted()
+    }
+
+    def "thread is not stopped after its watch is stopped"() {
+        given:
+        def finished = false
+        Throwable failure = null
+        def thread = new Thread({
+            def watch = StallWatchdog.watch(Thread.currentThread(), "late", 100, 0, 100)
+            try {
+                try {
+                    Thread.sleep(10000)
+                } catch (InterruptedException e) {
+                    // returns within the grace period
+                }
+                watch.stop()
+                // past the grace period
+                Thread.sleep(500)
+                finished = true
+            } catch (Throwable e) {
+                failure = e
+            }
+        })
+
+        when:
+        thread.start()
+        thread.join(10000)
+
+        then:
+        finished
+        failure == null
+    }
+
+}
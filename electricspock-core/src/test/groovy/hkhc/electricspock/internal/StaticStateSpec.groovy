@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal
+
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+import spock.lang.Title
+
+import java.lang.invoke.MethodHandles
+
+/* the classes of a class loader can only be listed when java.lang is open to the runner */
+@IgnoreIf({ !StaticStateSpec.classesReadable() })
+@Title("static state restored after specifications")
+class StaticStateSpec extends Specification {
+
+    /* classes of the source share the class loader returned with the first of them */
+    static Class define(String source) {
+        new GroovyClassLoader(StaticStateSpec.classLoader).parseClass(source)
+    }
+
+    def "changed static fields are written back"() {
+        given:
+        def counter = define("""
+            class RestoredCounter {
+                static int count = 1
+                static String name = "first"
+            }
+        """)
+        counter.count // initializes it
+        StaticState.snapshot(counter.classLoader)
+
+        when:
+        counter.count = 5
+        counter.name = "changed"
+        def restored = StaticState.restore()
+
+        then:
+        restored == 2
+        counter.count == 1
+        counter.name == "first"
+    }
+
+    def "class initialized after a snapshot is taken by the next one"() {
+        given:
+        def early = define("""
+            class EarlyHolder { static int value = 1 }
+            class LateHolder { static int value = 1 }
+        """)
+        def late = early.classLoader.loadClass("LateHolder")
+        early.value
+        StaticState.snapshot(early.classLoader)
+
+        when: "a feature initializes it, and the next snapshot is taken after the feature"
+        late.value
+        StaticState.snapshot(early.classLoader)
+        late.value = 2
+        StaticState.restore()
+
+        then:
+        late.value == 1
+    }
+
+    def "classes not initialized are not initialized by a snapshot"() {
+        given:
+        def lazy = define("""
+            class LazyHolder {
+                static { System.setProperty("electricspock.test.lazyHolder", "initialized") }
+            }
+        """)
+
+        when:
+        StaticState.snapshot(lazy.classLoader)
+
+        then:
+        System.getProperty("electricspock.test.lazyHolder") == null
+    }
+
+    def "framework classes are left alone"() {
+        given:
+        def framework = define("""
+            package android.test.fake
+            class FrameworkHolder { static int value = 1 }
+        """)
+        framework.value
+        StaticState.snapshot(framework.classLoader)
+
+        when:
+        framework.value = 2
+        StaticState.restore()
+
+        then:
+        framework.value == 2
+    }
+
+    static boolean classesReadable() {
+        try {
+            ClassLoader.getDeclaredField("classes").setAccessible(true)
+            return true
+        } catch (NoSuchFieldException ignored) {
+            try {
+                MethodHandles.privateLookupIn(ClassLoader, MethodHandles.lookup())
+                return true
+            } catch (Exception e) {
+                return false
+            }
+        } catch (Exception e) {
+            return false
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.internal.worker
+
+import hkhc.electricspock.internal.LoadSample
+import org.junit.runner.Description
+import spock.lang.Specification
+import spock.lang.Title
+
+@Title("protocol between test JVM and workers")
+class WorkerProtocolSpec extends Specification {
+
+    /* not serializable, like many exceptions of the code under test */
+    static class LockedException extends RuntimeException {
+        final Object lock = new Object()
+
+        LockedException(String message, Throwable cause) { super(message, cause) }
+    }
+
+    def "request survives the stream"() {
+        when:
+        WorkerRequest request = roundTrip(new WorkerRequest("a.Spec", ["b(a.Spec)", "a(a.Spec)"], 2, 3))
+
+        then:
+        request.specClassName == "a.Spec"
+        request.testNames == ["b(a.Spec)", "a(a.Spec)"]
+        request.partitionIndex == 2
+        request.partitionCount == 3
+        !request.isCancel()
+    }
+
+    def "cancellation survives the stream"() {
+        expect:
+        roundTrip(WorkerRequest.cancel()).isCancel()
+    }
+
+    def "event survives the stream"() {
+        given:
+        def description = Description.createTestDescription("a.Spec", "feature")
+
+        when:
+        WorkerEvent event = roundTrip(new WorkerEvent(WorkerEvent.Type.FAILURE, description,
+                new IllegalStateException("broken")))
+
+        then:
+        event.type == WorkerEvent.Type.FAILURE
+        event.description == description
+        event.exception.className == IllegalStateException.name
+        event.exception.message == "broken"
+    }
+
+    def "output of failing feature survives the stream"() {
+        when:
+        WorkerEvent event = roundTrip(WorkerEvent.failure(Description.createTestDescription("a.Spec", "feature"),
+                new AssertionError("failed"), "--- output of feature(a.Spec) ---\nlog\n---\n"))
+
+        then:
+        event.type == WorkerEvent.Type.FAILURE
+        event.output.contains("log")
+    }
+
+    def "load of the worker survives the stream"() {
+        when:
+        WorkerEvent event = roundTrip(WorkerEvent.done(Description.createSuiteDescription("a.Spec"),
+                LoadSample.current()))
+
+        then:
+        event.type == WorkerEvent.Type.DONE
+        event.load.heapUsedBytes > 0
+    }
+
+    def "exception keeps class name, message, stack trace and causes"() {
+        given:
+        def cause = new IOException("disk")
+        def exception = new LockedException("outer", cause)
+
+        when:
+        RemoteThrowable remote = roundTrip(RemoteThrowable.of(exception))
+
+        then:
+        remote.className == LockedException.name
+        remote.toString() == LockedException.name + ": outer"
+        remote.stackTrace == exception.stackTrace
+        remote.cause instanceof RemoteThrowable
+        (remote.cause as RemoteThrowable).className == IOException.name
+        remote.cause.message == "disk"
+    }
+
+    def "exception with cyclic causes is converted"() {
+        given:
+        def first = new Exception("first")
+        def second = new Exception("second")
+        first.initCause(second)
+        second.initCause(first)
+
+        when:
+        RemoteThrowable remote = roundTrip(RemoteThrowable.of(first))
+
+        then:
+        remote.message == "first"
+        remote.cause.message == "second"
+        remote.cause.cause == null
+    }
+
+    def "worker takes heap, assertion and runner arguments of the test JVM"() {
+        expect:
+        WorkerProcess.workerArguments(arguments) == expected
+
+        where:
+        arguments                                                    | expected
+        ["-Xmx2g", "-XX:+UseG1GC", "-ea"]                            | ["-Xmx2g", "-XX:+UseG1GC", "-ea"]
+        ["-javaagent:/jacoco.jar=destfile=a.exec"]                   | ["-javaagent:/jacoco.jar=destfile=a.exec"]
+        ["-Delectricspock.feature.timeout=10", "-Drobolectric.offline=true"] | ["-Delectricspock.feature.timeout=10", "-Drobolectric.offline=true"]
+        ["-Dfile.encoding=UTF-8", "-Duser.country=US"]               | ["-Dfile.encoding=UTF-8", "-Duser.country=US"]
+    }
+
+    def "worker leaves out arguments of the test JVM that do not apply to it"() {
+        expect:
+        WorkerProcess.workerArguments([argument]).isEmpty()
+
+        where:
+        argument << [
+                "-Djava.security.manager=worker.org.gradle.process.internal.worker.child.BootstrapSecurityManager",
+                "-Dorg.gradle.native=false",
+                "-agentlib:jdwp=transport=dt_socket,server=y,address=5005",
+                "-Delectricspock.execution=process",
+                "-Delectricspock.metrics.dir=/build/electricspock/metrics",
+                "-Delectricspock.report.dir=/build/electricspock/reports",
+                "-XX:ArchiveClassesAtExit=/build/electricspock/cds/test.jsa",
+                "-Dfile.encoding.pkg=sun.io"
+        ]
+    }
+
+    private static <T> T roundTrip(T object) {
+        def bytes = new ByteArrayOutputStream()
+        new ObjectOutputStream(bytes).withCloseable { it.writeObject(object) }
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).withCloseable {
+            (T) it.readObject()
+        }
+    }
+
+}
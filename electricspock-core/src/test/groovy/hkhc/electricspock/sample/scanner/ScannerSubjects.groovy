@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.sample.scanner
+
+import org.robolectric.util.Scheduler
+
+/*
+ * Subjects of AndroidReferenceScannerSpec
+ */
+
+class PlainCollaborator {
+    int twice(int a) { a * 2 }
+}
+
+class RobolectricCollaborator {
+    Class schedulerType() { Scheduler }
+}
+
+class IndirectCollaborator {
+    def collaborator = new RobolectricCollaborator()
+}
+
+class PlainSubject {
+    def run() { new PlainCollaborator().twice(1) }
+}
+
+class CollaboratorSubject {
+    def run() { new RobolectricCollaborator() }
+}
+
+class IndirectSubject {
+    def run() { new IndirectCollaborator() }
+}
+
+class ClosureSubject {
+    def run() { [1, 2].collect { new Scheduler() } }
+}
+
+class InheritingSubject extends CollaboratorSubject {
+}
@@ -19,6 +19,7 @@ package hkhc.electricspock.runner;
 
 import org.junit.runner.Description;
 import org.junit.runner.Runner;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.Suite;
 import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.RunnerBuilder;
@@ -26,6 +27,8 @@ import org.junit.runners.model.RunnerBuilder;
 import java.lang.annotation.Annotation;
 import java.util.List;
 
+import hkhc.electricspock.ElectricSputnik;
+import hkhc.electricspock.internal.worker.WorkerPool;
 import spock.lang.Title;
 
 import static hkhc.electricspock.runner.SpecUtils.getSpecClasses;
@@ -36,8 +39,15 @@ import static hkhc.electricspock.runner.SpecUtils.getSpecClasses;
 
 public class InnerSpecRunner extends Suite {
 
+    /* only specifications run by worker JVMs are run concurrently, see runChild */
+    private ParallelScheduler scheduler = null;
+
     public InnerSpecRunner(Class<?> klass, RunnerBuilder builder) throws InitializationError {
         super(builder, klass, getSpecClasses(klass));
+        if (WorkerPool.isEnabled()) {
+            scheduler = new ParallelScheduler(WorkerPool.getInstance().getSize());
+            setScheduler(scheduler);
+        }
     }
 
     // Not expected to call
@@ -60,6 +70,20 @@ public class InnerSpecRunner extends Suite {
         super(klass, runners);
     }
 
+    @Override
+    protected void runChild(final Runner child, final RunNotifier notifier) {
+        if (scheduler != null && child instanceof ElectricSputnik && ((ElectricSputnik) child).isRemote()) {
+            scheduler.submit(new Runnable() {
+                @Override
+                public void run() {
+                    InnerSpecRunner.super.runChild(child, notifier);
+                }
+            });
+        } else {
+            super.runChild(child, notifier);
+        }
+    }
+
     @Override
     public Description getDescription() {
         Description d = super.getDescription();
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.runner;
+
+import org.junit.runners.model.RunnerScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run the specifications of a suite that are dispatched to worker JVMs concurrently, so that every
+ * worker is kept busy. Children scheduled the usual way run one after another in the calling
+ * thread, as specifications in this JVM share sandboxes and static state.
+ */
+
+public class ParallelScheduler implements RunnerScheduler {
+
+    private final int threads;
+    private ExecutorService executor = null;
+    private final List<Future<?>> futures = new ArrayList<>();
+
+    public ParallelScheduler(int threads) {
+        this.threads = threads;
+    }
+
+    @Override
+    public void schedule(Runnable childStatement) {
+        childStatement.run();
+    }
+
+    /**
+     * Run a child concurrently with the other children submitted
+     */
+    public void submit(Runnable childStatement) {
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "electricspock-suite-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        futures.add(executor.submit(childStatement));
+    }
+
+    @Override
+    public void finished() {
+        if (executor == null) return;
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
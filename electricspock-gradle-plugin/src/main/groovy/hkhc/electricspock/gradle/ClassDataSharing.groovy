@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+import groovy.io.FileType
+import org.gradle.api.JavaVersion
+import org.gradle.api.tasks.testing.Test
+import org.gradle.process.CommandLineArgumentProvider
+
+import java.security.MessageDigest
+
+/**
+ * Share the classes of runner, Robolectric, Spock and Groovy between forks with an AppCDS
+ * archive, so that every fork maps them instead of loading and verifying them again.
+ *
+ * The first run of a test task is a training run: a single fork runs all test classes and dumps
+ * the classes it loaded into the archive when it exits (JDK 13 or later). Parallel or restarted
+ * forks would each dump an archive to the same file. The key of the archive is only written once
+ * the archive exists, so a training run that did not get as far as dumping is simply repeated.
+ * Later runs map the archive with the forks of the build script. It is trained again when the
+ * Java executable or the classpath of the task changes.
+ *
+ * The JVM refuses to dump or map an archive when the classpath has a directory that is not empty,
+ * so class data sharing is skipped with a warning unless the classpath is made of jars. Classes
+ * defined by the sandbox class loader are not archived either, as the JVM only archives classes
+ * it can find in jar files, while Robolectric defines instrumented or relocated bytes. Libraries
+ * not acquired by sandboxes (see shared runtime) are loaded by the application class loader, so
+ * they are archived.
+ *
+ * Whether a run trains or maps is decided when the task starts, and given to the forks by an
+ * argument provider. The archive only affects startup time, so it is not an input of the task.
+ */
+class ClassDataSharing implements CommandLineArgumentProvider {
+
+    private final Test test
+    private final File dir
+
+    /* decided when the task starts, the same for all forks of the run */
+    private List<String> arguments = []
+
+    private ClassDataSharing(Test test, File dir) {
+        this.test = test
+        this.dir = dir
+    }
+
+    static void configure(Test test, File dir) {
+        ClassDataSharing sharing = new ClassDataSharing(test, dir)
+        test.jvmArgumentProviders.add(sharing)
+        test.doFirst { sharing.prepare() }
+        test.doLast { sharing.acceptTrainedArchive() }
+    }
+
+    @Override
+    Iterable<String> asArguments() {
+        arguments
+    }
+
+    private File getArchive() {
+        new File(dir, "${test.name}.jsa")
+    }
+
+    private File getKeyFile() {
+        new File(dir, "${test.name}.key")
+    }
+
+    /* key of a training run, until its archive is dumped */
+    private File getTrainingKeyFile() {
+        new File(dir, "${test.name}.training")
+    }
+
+    private void prepare() {
+        JavaVersion javaVersion
+        try {
+            javaVersion = test.javaVersion
+        } catch (Exception e) {
+            arguments = []
+            test.logger.info("ElectricSpock: cannot tell Java version of ${test.path}, class data sharing is off: $e")
+            return
+        }
+        prepare(javaVersion)
+    }
+
+    private void prepare(JavaVersion javaVersion) {
+
+        arguments = []
+
+        if (!javaVersion.isCompatibleWith(JavaVersion.toVersion('13'))) {
+            test.logger.info("ElectricSpock: class data sharing of ${test.path} needs Java 13, it runs $javaVersion")
+            return
+        }
+
+        List<File> directories = test.classpath.files.findAll { it.isDirectory() && it.list().length > 0 }
+        if (!directories.isEmpty()) {
+            test.logger.warn("ElectricSpock: class data sharing of ${test.path} is skipped, as the JVM only " +
+                    "archives classpaths of jars, and it has directories ${directories}")
+            return
+        }
+
+        // the archive of a training run that failed its tests
+        acceptTrainedArchive()
+
+        String key = archiveKey(test)
+        if (archive.isFile() && keyFile.isFile() && keyFile.text == key) {
+            // auto, so that a fork still starts when the archive does not fit
+            arguments = ["-XX:SharedArchiveFile=${archive.absolutePath}".toString(), '-Xshare:auto']
+            test.logger.info("ElectricSpock: ${test.path} maps class data archive $archive")
+        } else {
+            dir.mkdirs()
+            archive.delete()
+            keyFile.delete()
+            trainingKeyFile.text = key
+            if (test.maxParallelForks != 1 || test.forkEvery != 0) {
+                test.logger.info("ElectricSpock: ${test.path} runs in a single fork to train class data archive")
+                test.maxParallelForks = 1
+                test.forkEvery = 0
+            }
+            arguments = ["-XX:ArchiveClassesAtExit=${archive.absolutePath}".toString()]
+            test.logger.info("ElectricSpock: ${test.path} trains class data archive $archive")
+        }
+
+    }
+
+    /* the key is written only for an archive that was dumped after its training run started */
+    private void acceptTrainedArchive() {
+        File training = trainingKeyFile
+        if (!training.isFile()) return
+        if (archive.isFile() && archive.lastModified() >= training.lastModified()) {
+            keyFile.text = training.text
+            training.delete()
+        }
+    }
+
+    /* the archive is valid for the same JVM and classpath only */
+    private static String archiveKey(Test test) {
+        MessageDigest digest = MessageDigest.getInstance('SHA-256')
+        digest.update(test.executable.toString().bytes)
+        test.classpath.files.each { File entry ->
+            digest.update(entry.absolutePath.bytes)
+            if (entry.isDirectory()) {
+                // the time of a directory does not change with files changed in it
+                entry.eachFileRecurse(FileType.FILES) { File file -> update(digest, file) }
+            } else {
+                update(digest, entry)
+            }
+        }
+        return digest.digest().encodeHex().toString()
+    }
+
+    private static void update(MessageDigest digest, File file) {
+        digest.update(file.absolutePath.bytes)
+        digest.update(Long.toString(file.length()).bytes)
+        digest.update(Long.toString(file.lastModified()).bytes)
+    }
+
+}
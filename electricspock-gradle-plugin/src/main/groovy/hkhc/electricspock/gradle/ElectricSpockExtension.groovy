@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+/**
+ * The <code>electricspock { }</code> block of build script.
+ */
+class ElectricSpockExtension {
+
+    /* tune forks of test tasks from the metrics of previous run */
+    boolean autoTune = true
+
+    /* bounds of the heap size picked for a fork, in MB */
+    int minHeapMb = 512
+    int maxHeapMb = 4096
+
+    /* upper bound of the number of forks */
+    int maxForks = Runtime.runtime.availableProcessors()
+
+    /* fraction of physical memory that all forks together may use */
+    double memoryFraction = 0.75
+
+    /* keep temporary directories of sandboxes on tmpfs: true for /dev/shm, or path of a tmpfs */
+    Object tmpfs = null
+
+    /* configure the JaCoCo agent of test tasks for sandboxes, when the jacoco plugin is applied */
+    boolean coverage = true
+
+    /* share loaded classes between forks with an AppCDS archive trained by the first run */
+    boolean classDataSharing = false
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+import org.gradle.api.Plugin
+import org.gradle.api.Project
+import org.gradle.api.tasks.testing.Test
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Configure the test tasks of a project for ElectricSpock. The runner records sandbox footprint
+ * and timing of every fork, and the next run of the task picks its fork count, heap size and
+ * fork-every from them.
+ */
+class ElectricSpockPlugin implements Plugin<Project> {
+
+    static final String SANDBOX_THREADS_PROPERTY = 'electricspock.sandbox.threads'
+
+    @Override
+    void apply(Project project) {
+
+        ElectricSpockExtension extension = project.extensions.create('electricspock', ElectricSpockExtension)
+
+        // settings are taken once the build script has configured the extension, so that test
+        // tasks have their final inputs before Gradle checks whether they are up to date
+        project.afterEvaluate {
+            project.tasks.withType(Test).configureEach { Test test ->
+                configureTest(project, test, extension)
+            }
+        }
+
+    }
+
+    private static void configureTest(Project project, Test test, ElectricSpockExtension extension) {
+
+        File metricsDir = new File(project.buildDir, "electricspock/metrics/${test.name}")
+        File reportDir = new File(project.buildDir, "electricspock/reports/${test.name}")
+        test.jvmArgumentProviders.add(new RunnerDirectories(metricsDir, reportDir))
+
+        TmpfsDirectory.configure(test, extension)
+
+        if (extension.coverage) {
+            SandboxCoverage.configure(test)
+        }
+
+        if (extension.classDataSharing) {
+            ClassDataSharing.configure(test, new File(project.buildDir, 'electricspock/cds'))
+        }
+
+        if (extension.autoTune) {
+            ForkTuner.Tuning tuning = new ForkTuner(
+                    Runtime.runtime.availableProcessors(), physicalMemory(), extension)
+                    .tune(readMetrics(metricsDir))
+            if (tuning != null) applyTuning(test, tuning)
+        }
+
+        test.doFirst {
+            // forks of this run record fresh metrics for the next one
+            project.delete(metricsDir, reportDir)
+        }
+
+    }
+
+    /**
+     * Take the tuned settings that the build script leaves at the defaults of Gradle. A setting
+     * at its default cannot be told from one set to the same value, so maxParallelForks = 1 and
+     * forkEvery = 0 are tuned all the same.
+     */
+    static void applyTuning(Test test, ForkTuner.Tuning tuning) {
+        if (test.maxParallelForks == 1) {
+            test.maxParallelForks = tuning.maxParallelForks
+        }
+        if (test.maxHeapSize == null) {
+            test.maxHeapSize = tuning.maxHeapSize
+        }
+        if (test.forkEvery == 0) {
+            test.forkEvery = tuning.forkEvery
+        }
+        if (!test.systemProperties.containsKey(SANDBOX_THREADS_PROPERTY)) {
+            test.systemProperty SANDBOX_THREADS_PROPERTY, tuning.sandboxThreads(test.maxParallelForks)
+        }
+        test.logger.info("ElectricSpock: ${test.path} tuned to maxParallelForks=${test.maxParallelForks}, " +
+                "maxHeapSize=${test.maxHeapSize}, forkEvery=${test.forkEvery}")
+    }
+
+    static List<Properties> readMetrics(File dir) {
+        File[] files = dir.listFiles({ File f -> f.name.endsWith('.properties') } as FileFilter)
+        if (files == null) return []
+        return files.collect { File file ->
+            Properties properties = new Properties()
+            file.withInputStream { properties.load(it) }
+            properties
+        }
+    }
+
+    private static long physicalMemory() {
+        def os = ManagementFactory.operatingSystemMXBean
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).totalPhysicalMemorySize
+        }
+        return Long.MAX_VALUE
+    }
+
+}
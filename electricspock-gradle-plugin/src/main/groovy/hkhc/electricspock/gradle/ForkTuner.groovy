@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+/**
+ * Pick fork settings of a test task from the metrics written by forks of the previous run, one
+ * Properties per fork. See RunnerMetrics of electricspock-core for the keys.
+ *
+ * The settings are inputs of the test task, and metrics differ a little from run to run. They are
+ * rounded to coarse steps so that the task stays up to date and its build cache key stays the
+ * same until the footprint of the tests really changes.
+ */
+class ForkTuner {
+
+    static final long MB = 1024L * 1024L
+
+    /* headroom on top of the peak heap in use after GC */
+    static final double HEAP_HEADROOM = 1.5
+
+    /* a fork is considered short of memory when its heap in use after GC reaches this fraction */
+    static final double MEMORY_TIGHT = 0.9
+
+    int cores
+    long physicalMemory
+    ElectricSpockExtension extension
+
+    ForkTuner(int cores, long physicalMemory, ElectricSpockExtension extension) {
+        this.cores = cores
+        this.physicalMemory = physicalMemory
+        this.extension = extension
+    }
+
+    /**
+     * @param forks metrics of forks in previous run
+     * @return the settings, or null if there is nothing to learn from
+     */
+    Tuning tune(List<Properties> forks) {
+
+        forks = forks.findAll { value(it, 'specs') > 0 }
+        if (forks.isEmpty()) return null
+
+        long peakHeap = forks.collect { value(it, 'peakHeapBytes') }.max()
+        long peakNonHeap = forks.collect { value(it, 'peakNonHeapBytes') }.max()
+
+        long heap = bucket((long) (peakHeap * HEAP_HEADROOM))
+        heap = Math.max(extension.minHeapMb * MB, Math.min(extension.maxHeapMb * MB, heap))
+
+        // sandboxes take a lot of metaspace and code cache besides heap
+        long footprint = heap + bucket(peakNonHeap)
+        int memoryForks = (int) Math.min(Integer.MAX_VALUE,
+                (long) (physicalMemory * extension.memoryFraction) / footprint)
+        int forkCount = Math.max(1, [cores, memoryForks, extension.maxForks].min())
+
+        // Restart forks that ran short of memory half way, as sandboxes keep piling up in them.
+        // Otherwise a fork keeps its warm sandboxes to the end.
+        long forkEvery = 0
+        boolean tight = forks.any {
+            value(it, 'peakHeapBytes') >= MEMORY_TIGHT * value(it, 'maxHeapBytes')
+        }
+        if (tight) {
+            long specsPerFork = (long) Math.ceil(forks.sum { value(it, 'specs') } / (double) forks.size())
+            forkEvery = Long.highestOneBit(Math.max(1L, (long) Math.ceil(specsPerFork / 2.0)))
+        }
+
+        return new Tuning(
+                cores: cores,
+                maxParallelForks: forkCount,
+                maxHeapBytes: heap,
+                forkEvery: forkEvery)
+
+    }
+
+    private static long value(Properties properties, String key) {
+        properties.getProperty(key, '0') as long
+    }
+
+    /**
+     * Round up to a power of two, or one and a half of it, of 64MB at least. The steps are at
+     * most half as large again as the value.
+     */
+    static long bucket(long value) {
+        long step = 64 * MB
+        while (true) {
+            if (value <= step) return step
+            if (value <= step + step / 2) return step + step / 2
+            step *= 2
+        }
+    }
+
+    static class Tuning {
+        int cores
+        int maxParallelForks
+        long maxHeapBytes
+        long forkEvery
+
+        String getMaxHeapSize() {
+            "${(long) (maxHeapBytes / MB)}m"
+        }
+
+        int getSandboxThreads() {
+            sandboxThreads(maxParallelForks)
+        }
+
+        /**
+         * @param forks number of forks actually run, which the build script may have set
+         * @return sandboxes created at once by a fork, a power of two to share the cores
+         */
+        int sandboxThreads(int forks) {
+            Integer.highestOneBit(Math.max(1, (int) (cores / Math.max(1, forks))))
+        }
+
+        String toString() {
+            "maxParallelForks=$maxParallelForks, maxHeapSize=$maxHeapSize, forkEvery=$forkEvery"
+        }
+    }
+
+}
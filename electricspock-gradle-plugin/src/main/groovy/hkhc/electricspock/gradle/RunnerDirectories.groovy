@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+import org.gradle.api.tasks.Internal
+import org.gradle.process.CommandLineArgumentProvider
+
+/**
+ * Tell the forks of a test task where to write runner metrics and reports. The directories are
+ * absolute paths of the checkout, so they are given on the command line instead of as system
+ * properties, which are inputs of the task and would keep its result from being taken from the
+ * build cache of another checkout.
+ */
+class RunnerDirectories implements CommandLineArgumentProvider {
+
+    static final String METRICS_DIR_PROPERTY = 'electricspock.metrics.dir'
+    static final String REPORT_DIR_PROPERTY = 'electricspock.report.dir'
+
+    private final File metricsDir
+    private final File reportDir
+
+    RunnerDirectories(File metricsDir, File reportDir) {
+        this.metricsDir = metricsDir
+        this.reportDir = reportDir
+    }
+
+    @Internal
+    File getMetricsDir() {
+        metricsDir
+    }
+
+    @Internal
+    File getReportDir() {
+        reportDir
+    }
+
+    @Override
+    Iterable<String> asArguments() {
+        return ["-D$METRICS_DIR_PROPERTY=${metricsDir.absolutePath}".toString(),
+                "-D$REPORT_DIR_PROPERTY=${reportDir.absolutePath}".toString()]
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+import org.gradle.api.tasks.testing.Test
+import org.gradle.testing.jacoco.plugins.JacocoTaskExtension
+
+/**
+ * Configure the JaCoCo agent of a test task to work with Robolectric sandboxes.
+ *
+ * Classes of the project are defined again in every sandbox, by a class loader that gives them
+ * no code source, and the agent skips such classes by default. Copies of a class have the same
+ * bytes, so their probes are merged into one entry of the exec data.
+ *
+ * The android-all jar is instrumented by Robolectric and loaded again in every sandbox. Covering
+ * it doubles the instrumentation work of every sandbox, and its coverage cannot be matched with
+ * class files anyway, so it is excluded, together with the runtime of the test framework.
+ */
+class SandboxCoverage {
+
+    /* classes of ElectricSpock itself, listed one by one, as applications under test may share
+    its package prefix */
+    static final List<String> RUNNER_EXCLUDES = [
+            'hkhc.electricspock.internal.*',
+            'hkhc.electricspock.runner.*',
+            'hkhc.electricspock.ElectricSputnik*',
+            'hkhc.electricspock.ElectricSpecification*',
+            'hkhc.electricspock.DataTable*',
+            'hkhc.electricspock.DatabaseTemplate*',
+            'hkhc.electricspock.FeatureOutput*',
+            'hkhc.electricspock.Partitioned*',
+            'hkhc.electricspock.RobolectricVersionChecker*',
+            'hkhc.electricspock.SandboxFixtures*',
+            'hkhc.electricspock.UseSandbox*'
+    ]
+
+    static final List<String> EXCLUDES = [
+            'android.*',
+            'com.android.*',
+            'dalvik.*',
+            'libcore.*',
+            'org.robolectric.*',
+            'org.junit.*',
+            'junit.*',
+            'groovy.*',
+            'org.codehaus.groovy.*',
+            'org.apache.groovy.*',
+            'org.spockframework.*',
+            'spock.*',
+            'net.sf.cglib.*',
+            'net.bytebuddy.*',
+            'org.objenesis.*',
+            'jdk.internal.*'
+    ] + RUNNER_EXCLUDES
+
+    static void configure(Test test) {
+        JacocoTaskExtension jacoco = test.extensions.findByType(JacocoTaskExtension)
+        if (jacoco == null || !jacoco.enabled) return
+
+        jacoco.includeNoLocationClasses = true
+        List<String> excludes = new ArrayList<>(jacoco.excludes ?: [])
+        EXCLUDES.each { if (!excludes.contains(it)) excludes << it }
+        jacoco.excludes = excludes
+    }
+
+}
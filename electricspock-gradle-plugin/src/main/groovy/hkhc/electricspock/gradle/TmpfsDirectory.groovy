@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.testing.Test
+import org.gradle.process.CommandLineArgumentProvider
+
+/**
+ * Point java.io.tmpdir of the forks of a test task to a directory on tmpfs. It is given on the
+ * command line, as the JDK reads it once, usually before the runner is loaded, and since JDK 9
+ * Files reads it when the JVM starts.
+ *
+ * The directory is shared by the forks of the task, so the forks leave it alone. It is emptied
+ * before the task runs and removed after it. Its location is not an input of the task, so the
+ * result of the task can still be taken from the build cache of another machine.
+ */
+class TmpfsDirectory implements CommandLineArgumentProvider {
+
+    static final String DEFAULT_TMPFS = '/dev/shm'
+
+    /* tells the runner that java.io.tmpdir is already on tmpfs, see InMemoryTempDirectory */
+    static final String TMPFS_DIR_PROPERTY = 'electricspock.tmpfs.dir'
+
+    private final Test test
+    private final ElectricSpockExtension extension
+
+    TmpfsDirectory(Test test, ElectricSpockExtension extension) {
+        this.test = test
+        this.extension = extension
+    }
+
+    static void configure(Test test, ElectricSpockExtension extension) {
+        TmpfsDirectory tmpfs = new TmpfsDirectory(test, extension)
+        test.jvmArgumentProviders.add(tmpfs)
+        test.doFirst { tmpfs.prepare() }
+        test.doLast { tmpfs.delete() }
+    }
+
+    @Input
+    boolean isEnabled() {
+        writableBase() != null
+    }
+
+    /**
+     * @return the directory of the task, or null if tmpfs is off or cannot be used
+     */
+    @Internal
+    File getDir() {
+        File base = writableBase()
+        if (base == null) return null
+        // unique per task of a checkout, and the same across runs so that leftovers are reused
+        String key = Integer.toHexString((test.project.rootDir.absolutePath + test.path).hashCode())
+        return new File(base, "electricspock-$key")
+    }
+
+    private File writableBase() {
+        File base = requestedBase()
+        return base != null && base.isDirectory() && base.canWrite() ? base : null
+    }
+
+    private File requestedBase() {
+        String tmpfs = extension.tmpfs?.toString()
+        if (!tmpfs || tmpfs == 'false') return null
+        return new File(tmpfs == 'true' ? DEFAULT_TMPFS : tmpfs)
+    }
+
+    @Override
+    Iterable<String> asArguments() {
+        File dir = getDir()
+        if (dir == null) return []
+        return ["-Djava.io.tmpdir=${dir.absolutePath}".toString(),
+                "-D$TMPFS_DIR_PROPERTY=${dir.absolutePath}".toString()]
+    }
+
+    private void prepare() {
+        File requested = requestedBase()
+        if (requested != null && writableBase() == null) {
+            test.logger.warn("ElectricSpock: $requested is not a writable directory, tmpfs of ${test.path} is ignored")
+        }
+        File dir = getDir()
+        if (dir == null) return
+        // left by a run that failed
+        test.project.delete(dir)
+        dir.mkdirs()
+    }
+
+    private void delete() {
+        File dir = getDir()
+        if (dir != null) test.project.delete(dir)
+    }
+
+}
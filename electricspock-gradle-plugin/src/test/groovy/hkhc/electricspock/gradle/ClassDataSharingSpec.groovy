@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+import org.gradle.api.JavaVersion
+import org.gradle.api.Project
+import org.gradle.api.tasks.testing.Test
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Title
+
+@Title("class data archive trained and mapped by test tasks")
+class ClassDataSharingSpec extends Specification {
+
+    static final JavaVersion JAVA_13 = JavaVersion.toVersion('13')
+
+    @Rule
+    TemporaryFolder temp = new TemporaryFolder()
+
+    Project project
+    Test test
+    File cdsDir
+    File jar
+
+    def setup() {
+        project = ProjectBuilder.builder().withProjectDir(temp.newFolder('project')).build()
+        test = project.tasks.create('unitTest', Test)
+        cdsDir = new File(temp.root, 'cds')
+        jar = new File(temp.root, 'lib.jar')
+        jar.bytes = [1, 2, 3] as byte[]
+        test.classpath = project.files(jar)
+        test.maxParallelForks = 4
+        test.forkEvery = 10
+    }
+
+    ClassDataSharing sharing() {
+        new ClassDataSharing(test, cdsDir)
+    }
+
+    /* what the training fork does when it exits */
+    void dumpArchive() {
+        new File(cdsDir, 'unitTest.jsa').text = 'archive'
+    }
+
+    def "first run trains the archive in a single fork"() {
+        given:
+        def sharing = sharing()
+
+        when:
+        sharing.prepare(JAVA_13)
+
+        then:
+        sharing.asArguments() as List == ["-XX:ArchiveClassesAtExit=${new File(cdsDir, 'unitTest.jsa').absolutePath}".toString()]
+        test.maxParallelForks == 1
+        test.forkEvery == 0
+        !new File(cdsDir, 'unitTest.key').exists()
+    }
+
+    def "trained archive is mapped by the next run with the forks of the build script"() {
+        given:
+        sharing().prepare(JAVA_13)
+        dumpArchive()
+        sharing().acceptTrainedArchive()
+        test.maxParallelForks = 4
+        test.forkEvery = 10
+        def sharing = sharing()
+
+        when:
+        sharing.prepare(JAVA_13)
+
+        then:
+        sharing.asArguments() as List == ["-XX:SharedArchiveFile=${new File(cdsDir, 'unitTest.jsa').absolutePath}".toString(),
+                                          '-Xshare:auto']
+        test.maxParallelForks == 4
+        test.forkEvery == 10
+    }
+
+    def "archive dumped by a run with failed tests is mapped too"() {
+        given:
+        sharing().prepare(JAVA_13)
+        dumpArchive()
+        def sharing = sharing()
+
+        when: "the task failed, so its last action did not run"
+        sharing.prepare(JAVA_13)
+
+        then:
+        sharing.asArguments()[0].startsWith('-XX:SharedArchiveFile=')
+    }
+
+    def "training that did not dump an archive is repeated"() {
+        given:
+        sharing().prepare(JAVA_13)
+        sharing().acceptTrainedArchive()
+        def sharing = sharing()
+
+        when:
+        sharing.prepare(JAVA_13)
+
+        then:
+        sharing.asArguments()[0].startsWith('-XX:ArchiveClassesAtExit=')
+    }
+
+    def "archive is trained again when a jar of the classpath changes"() {
+        given:
+        sharing().prepare(JAVA_13)
+        dumpArchive()
+        sharing().acceptTrainedArchive()
+        jar.bytes = [1, 2, 3, 4] as byte[]
+        def sharing = sharing()
+
+        when:
+        sharing.prepare(JAVA_13)
+
+        then:
+        sharing.asArguments()[0].startsWith('-XX:ArchiveClassesAtExit=')
+    }
+
+    def "class data sharing is skipped when the classpath has class directories"() {
+        given:
+        File classes = temp.newFolder('classes')
+        new File(classes, 'Foo.class').bytes = [1] as byte[]
+        test.classpath = project.files(jar, classes)
+        def sharing = sharing()
+
+        when:
+        sharing.prepare(JAVA_13)
+
+        then:
+        sharing.asArguments().isEmpty()
+        test.maxParallelForks == 4
+        !cdsDir.exists()
+    }
+
+    def "empty class directories do not keep the archive from being trained"() {
+        given:
+        test.classpath = project.files(jar, temp.newFolder('resources'))
+        def sharing = sharing()
+
+        when:
+        sharing.prepare(JAVA_13)
+
+        then:
+        sharing.asArguments()[0].startsWith('-XX:ArchiveClassesAtExit=')
+    }
+
+    def "class data sharing is off before Java 13"() {
+        given:
+        def sharing = sharing()
+
+        when:
+        sharing.prepare(JavaVersion.VERSION_11)
+
+        then:
+        sharing.asArguments().isEmpty()
+        test.maxParallelForks == 4
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+import org.gradle.api.Project
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.testing.Test
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Title
+
+import static hkhc.electricspock.gradle.ForkTuner.MB
+
+@Title("test tasks configured by the plugin")
+class ElectricSpockPluginSpec extends Specification {
+
+    @Rule
+    TemporaryFolder temp = new TemporaryFolder()
+
+    Project project
+    Test test
+
+    def setup() {
+        project = ProjectBuilder.builder().withProjectDir(temp.newFolder('project')).build()
+        test = project.tasks.create('unitTest', Test)
+    }
+
+    static ForkTuner.Tuning tuning() {
+        new ForkTuner.Tuning(cores: 8, maxParallelForks: 4, maxHeapBytes: 1024 * MB, forkEvery: 8)
+    }
+
+    def "settings left at their defaults are tuned"() {
+        when:
+        ElectricSpockPlugin.applyTuning(test, tuning())
+
+        then:
+        test.maxParallelForks == 4
+        test.maxHeapSize == "1024m"
+        test.forkEvery == 8
+        test.systemProperties[ElectricSpockPlugin.SANDBOX_THREADS_PROPERTY] == 2
+    }
+
+    def "settings of the build script are kept"() {
+        given:
+        test.maxParallelForks = 2
+        test.maxHeapSize = "3g"
+        test.forkEvery = 50
+        test.systemProperty ElectricSpockPlugin.SANDBOX_THREADS_PROPERTY, 3
+
+        when:
+        ElectricSpockPlugin.applyTuning(test, tuning())
+
+        then:
+        test.maxParallelForks == 2
+        test.maxHeapSize == "3g"
+        test.forkEvery == 50
+        test.systemProperties[ElectricSpockPlugin.SANDBOX_THREADS_PROPERTY] == 3
+    }
+
+    def "sandbox threads follow the fork count of the build script"() {
+        given:
+        test.maxParallelForks = 2
+
+        when:
+        ElectricSpockPlugin.applyTuning(test, tuning())
+
+        then:
+        test.systemProperties[ElectricSpockPlugin.SANDBOX_THREADS_PROPERTY] == 4
+    }
+
+    def "runner directories are not inputs of the task"() {
+        given:
+        def directories = new RunnerDirectories(new File(temp.root, 'metrics'), new File(temp.root, 'reports'))
+
+        expect:
+        directories.asArguments() as List == [
+                "-D${RunnerDirectories.METRICS_DIR_PROPERTY}=${new File(temp.root, 'metrics').absolutePath}".toString(),
+                "-D${RunnerDirectories.REPORT_DIR_PROPERTY}=${new File(temp.root, 'reports').absolutePath}".toString()]
+        RunnerDirectories.getMethod('getMetricsDir').isAnnotationPresent(Internal)
+        RunnerDirectories.getMethod('getReportDir').isAnnotationPresent(Internal)
+    }
+
+}
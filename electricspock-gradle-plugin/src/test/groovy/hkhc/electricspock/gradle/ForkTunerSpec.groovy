@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+import spock.lang.Specification
+import spock.lang.Title
+
+import static hkhc.electricspock.gradle.ForkTuner.MB
+
+@Title("pick fork settings from runner metrics")
+class ForkTunerSpec extends Specification {
+
+    static Properties fork(long specs, long peakHeapMb, long peakNonHeapMb, long maxHeapMb) {
+        Properties p = new Properties()
+        p.setProperty('specs', "$specs")
+        p.setProperty('peakHeapBytes', "${peakHeapMb * MB}")
+        p.setProperty('peakNonHeapBytes', "${peakNonHeapMb * MB}")
+        p.setProperty('maxHeapBytes', "${maxHeapMb * MB}")
+        p
+    }
+
+    def "nothing to tune without metrics"() {
+        expect:
+        new ForkTuner(8, 16384 * MB, new ElectricSpockExtension()).tune([]) == null
+        new ForkTuner(8, 16384 * MB, new ElectricSpockExtension()).tune([fork(0, 100, 100, 512)]) == null
+    }
+
+    def "heap size is rounded up from peak usage with headroom"() {
+        when:
+        def tuning = new ForkTuner(8, 65536 * MB, new ElectricSpockExtension()).tune([fork(10, 600, 200, 2048)])
+        then:
+        tuning.maxHeapSize == "1024m"
+        tuning.forkEvery == 0
+    }
+
+    def "settings stay the same while the footprint changes a little"() {
+        when:
+        def tuner = new ForkTuner(8, 16384 * MB, new ElectricSpockExtension())
+        def first = tuner.tune([fork(10, 560, 180, 2048)])
+        def second = tuner.tune([fork(10, 640, 230, 2048)])
+        then:
+        first.maxHeapSize == second.maxHeapSize
+        first.maxParallelForks == second.maxParallelForks
+        first.sandboxThreads == second.sandboxThreads
+    }
+
+    def "heap is rounded to steps of powers of two and a half of them"() {
+        expect:
+        ForkTuner.bucket(mb * MB) == expected * MB
+        where:
+        mb   | expected
+        10   | 64
+        65   | 96
+        900  | 1024
+        1025 | 1536
+        1537 | 2048
+    }
+
+    def "fork count is limited by cores and memory"() {
+        when:
+        def byCores = new ForkTuner(4, 65536 * MB, new ElectricSpockExtension(maxForks: 64)).tune([fork(10, 600, 200, 2048)])
+        def byMemory = new ForkTuner(16, 4096 * MB, new ElectricSpockExtension(maxForks: 64)).tune([fork(10, 600, 200, 2048)])
+        then:
+        byCores.maxParallelForks == 4
+        byCores.sandboxThreads == 1
+        // 3072MB usable, 1024MB heap + 256MB non-heap per fork
+        byMemory.maxParallelForks == 2
+        byMemory.sandboxThreads == 8
+    }
+
+    def "forks short of memory are restarted half way"() {
+        when:
+        def tuning = new ForkTuner(8, 65536 * MB, new ElectricSpockExtension())
+                .tune([fork(30, 1900, 300, 2048), fork(10, 800, 300, 2048)])
+        then:
+        // half of 20 specs per fork, rounded down to a power of two
+        tuning.forkEvery == 8
+    }
+
+    def "sandbox threads share the cores between the forks actually run"() {
+        given:
+        def tuning = new ForkTuner.Tuning(cores: 12, maxParallelForks: 2)
+        expect:
+        tuning.sandboxThreads == 4
+        tuning.sandboxThreads(3) == 4
+        tuning.sandboxThreads(16) == 1
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+import org.gradle.api.Project
+import org.gradle.api.tasks.testing.Test
+import org.gradle.testfixtures.ProjectBuilder
+import org.gradle.testing.jacoco.plugins.JacocoTaskExtension
+import spock.lang.Specification
+import spock.lang.Title
+
+@Title("JaCoCo agent configured for sandboxes")
+class SandboxCoverageSpec extends Specification {
+
+    Project project = ProjectBuilder.builder().build()
+
+    def "agent covers classes defined in sandboxes and skips the frameworks"() {
+        given:
+        project.apply plugin: 'java'
+        project.apply plugin: 'jacoco'
+        Test test = project.tasks.getByName('test') as Test
+        JacocoTaskExtension jacoco = test.extensions.getByType(JacocoTaskExtension)
+        jacoco.excludes = ['com.example.Generated*']
+
+        when:
+        SandboxCoverage.configure(test)
+
+        then:
+        jacoco.includeNoLocationClasses
+        jacoco.excludes.containsAll(SandboxCoverage.EXCLUDES)
+        jacoco.excludes.containsAll(SandboxCoverage.RUNNER_EXCLUDES)
+        jacoco.excludes.contains('com.example.Generated*')
+        !jacoco.excludes.contains(null)
+    }
+
+    def "excludes are not added twice"() {
+        given:
+        project.apply plugin: 'java'
+        project.apply plugin: 'jacoco'
+        Test test = project.tasks.getByName('test') as Test
+        JacocoTaskExtension jacoco = test.extensions.getByType(JacocoTaskExtension)
+
+        when:
+        SandboxCoverage.configure(test)
+        SandboxCoverage.configure(test)
+
+        then:
+        jacoco.excludes.size() == SandboxCoverage.EXCLUDES.size()
+    }
+
+    def "agent turned off by the build script is left alone"() {
+        given:
+        project.apply plugin: 'java'
+        project.apply plugin: 'jacoco'
+        Test test = project.tasks.getByName('test') as Test
+        JacocoTaskExtension jacoco = test.extensions.getByType(JacocoTaskExtension)
+        jacoco.enabled = false
+
+        when:
+        SandboxCoverage.configure(test)
+
+        then:
+        !jacoco.includeNoLocationClasses
+        !jacoco.excludes
+    }
+
+    def "project without the jacoco plugin is left alone"() {
+        given:
+        project.apply plugin: 'java'
+        Test test = project.tasks.getByName('test') as Test
+
+        when:
+        SandboxCoverage.configure(test)
+
+        then:
+        notThrown(Exception)
+        test.extensions.findByType(JacocoTaskExtension) == null
+        test.jvmArgumentProviders.isEmpty()
+    }
+
+}
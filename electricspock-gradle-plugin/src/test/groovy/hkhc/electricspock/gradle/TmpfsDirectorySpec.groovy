@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Herman Cheung
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package hkhc.electricspock.gradle
+
+import org.gradle.api.Project
+import org.gradle.api.tasks.testing.Test
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Title
+
+@Title("temporary directories of forks on tmpfs")
+class TmpfsDirectorySpec extends Specification {
+
+    @Rule
+    TemporaryFolder temp = new TemporaryFolder()
+
+    Project project
+    Test test
+
+    def setup() {
+        project = ProjectBuilder.builder().withProjectDir(temp.newFolder('project')).build()
+        test = project.tasks.create('unitTest', Test)
+    }
+
+    def "directory of the task is given to the forks when tmpfs is writable"() {
+        given:
+        File base = temp.newFolder('shm')
+        def tmpfs = new TmpfsDirectory(test, new ElectricSpockExtension(tmpfs: base))
+
+        expect:
+        tmpfs.enabled
+        tmpfs.dir.parentFile == base
+        tmpfs.asArguments() as List == [
+                "-Djava.io.tmpdir=${tmpfs.dir.absolutePath}".toString(),
+                "-D${TmpfsDirectory.TMPFS_DIR_PROPERTY}=${tmpfs.dir.absolutePath}".toString()]
+    }
+
+    def "directory is the same across runs and differs between tasks"() {
+        given:
+        File base = temp.newFolder('shm')
+        def extension = new ElectricSpockExtension(tmpfs: base)
+        def other = project.tasks.create('otherTest', Test)
+
+        expect:
+        new TmpfsDirectory(test, extension).dir == new TmpfsDirectory(test, extension).dir
+        new TmpfsDirectory(test, extension).dir != new TmpfsDirectory(other, extension).dir
+    }
+
+    def "forks keep their temporary directory when tmpfs is off or cannot be used"() {
+        given:
+        def tmpfs = new TmpfsDirectory(test, new ElectricSpockExtension(tmpfs: setting))
+
+        expect:
+        !tmpfs.enabled
+        tmpfs.dir == null
+        tmpfs.asArguments().isEmpty()
+
+        where:
+        setting << [null, false, 'false', '/no/such/tmpfs']
+    }
+
+    def "leftover of a failed run is removed before the task runs"() {
+        given:
+        def tmpfs = new TmpfsDirectory(test, new ElectricSpockExtension(tmpfs: temp.newFolder('shm')))
+        tmpfs.dir.mkdirs()
+        new File(tmpfs.dir, 'leftover').text = 'from last run'
+
+        when:
+        tmpfs.prepare()
+
+        then:
+        tmpfs.dir.isDirectory()
+        tmpfs.dir.list().length == 0
+    }
+
+    def "directory is removed after the task"() {
+        given:
+        def tmpfs = new TmpfsDirectory(test, new ElectricSpockExtension(tmpfs: temp.newFolder('shm')))
+        tmpfs.prepare()
+        new File(tmpfs.dir, 'sandbox').mkdirs()
+
+        when:
+        tmpfs.delete()
+
+        then:
+        !tmpfs.dir.exists()
+    }
+
+    def "provider is added to the test task"() {
+        when:
+        TmpfsDirectory.configure(test, new ElectricSpockExtension(tmpfs: temp.newFolder('shm')))
+
+        then:
+        test.jvmArgumentProviders.any { it instanceof TmpfsDirectory }
+    }
+
+}
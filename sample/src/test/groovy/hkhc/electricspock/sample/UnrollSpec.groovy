@@ -17,7 +17,9 @@
 
 package hkhc.electricspock.sample
 
+import hkhc.electricspock.DataTable
 import hkhc.electricspock.ElectricSpecification
+import hkhc.electricspock.Partitioned
 import spock.lang.Title
 import spock.lang.Unroll
 
@@ -39,6 +41,15 @@ class UnrollSpec extends ElectricSpecification {
         3 || 4
     }
 
+    @Partitioned(2)
+    @Unroll
+    def "unroll row #row.index from file"() {
+        expect:
+        row.get("a").toInteger() == row.get("b").toInteger() - 1
+        where:
+        row << DataTable.csv("unroll.csv")
+    }
+
     def "other test"() {
         expect:
         100==100